@@ -15,22 +15,28 @@
 package org.e2immu.support;
 
 import org.e2immu.annotation.*;
+import org.e2immu.annotation.eventual.Mark;
 import org.e2immu.annotation.eventual.Only;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
-import java.util.Set;
+import java.util.*;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Example of a freezable set, which disallows both removal and attempts to write an object a second time.
- * Implemented as a map, so you can retrieve the exact object you put in using the <code>get</code> method.
+ * You can retrieve the exact object you put in using the <code>get</code> method.
  * Elements must not be null.
  * <p>
- * The type is eventually level 2 immutable since its only field <code>set</code> is explicitly final,
- * after freezing, it cannot be modified anymore, and it is independent because the only way of obtaining
+ * Every element is stored only once: while the set is being built, in an insertion-ordered array with an
+ * <code>int</code> index, rather than as key and value of a map node; on <code>freeze()</code>, the elements move
+ * into a compact array representation of exactly the right size.
+ * When the number of elements is known in advance, use the constructor with a capacity hint, or <code>addAll</code>
+ * on an empty set, which size the backing table once rather than growing it repeatedly.
+ * <p>
+ * The type is eventually level 2 immutable since its fields are effectively final after freezing,
+ * it cannot be modified anymore, and it is independent because the only way of obtaining
  * the whole set is via a {@link Stream}, or, when in Java 10 or higher, via a level 2 immutable copy.
  * <p>
  * This is an example class! Please extend and modify for your needs.
@@ -40,7 +46,64 @@ import java.util.stream.Stream;
 @ImmutableContainer(after = "frozen", hc = true)
 public class AddOnceSet<V> extends Freezable {
 
-    private final Map<V, V> set = new HashMap<>();
+    // cleared by freeze(), after table has been written; readers read it first, and fall back to table when
+    // it is null, so that a read which races freeze() finds one of the two
+    @Final(after = "frozen")
+    private volatile ElementTable<V> set;
+
+    @Final(after = "frozen")
+    private volatile FrozenTable<V, V> table;
+
+    /**
+     * Create an empty set.
+     */
+    public AddOnceSet() {
+        set = new ElementTable<>(0);
+    }
+
+    /**
+     * Create an empty set which can hold the given number of elements without growing.
+     *
+     * @param expectedSize the number of elements expected
+     * @throws IllegalArgumentException when the expected size is negative
+     */
+    public AddOnceSet(int expectedSize) {
+        if (expectedSize < 0) throw new IllegalArgumentException("Negative size: " + expectedSize);
+        set = new ElementTable<>(expectedSize);
+    }
+
+    /*
+    Create a set which is frozen from the start, with content served by the table.
+     */
+    AddOnceSet(@NotNull FrozenTable<V, V> table) {
+        this.table = Objects.requireNonNull(table);
+        super.freeze();
+    }
+
+    /**
+     * Freeze the set, and move its elements into a compact array representation.
+     *
+     * @throws IllegalStateException when the set was already frozen.
+     */
+    @Mark("frozen")
+    @Override
+    public void freeze() {
+        freeze(FreezeOptions.DEFAULT);
+    }
+
+    /**
+     * Freeze the set, and move its content into the representation chosen by the options.
+     *
+     * @param options the representation, see {@link FreezeOptions}
+     * @throws IllegalStateException when the set was already frozen.
+     */
+    @Mark("frozen")
+    public void freeze(@NotNull FreezeOptions options) {
+        ensureNotFrozen();
+        table = options.tableOfSet(set.toArray());
+        set = null;
+        super.freeze();
+    }
 
     /**
      * Add an element to the set.
@@ -53,8 +116,35 @@ public class AddOnceSet<V> extends Freezable {
     public void add(@NotNull V v) {
         Objects.requireNonNull(v);
         ensureNotFrozen();
-        if (contains(v)) throw new IllegalStateException("Already decided on " + v);
-        set.put(v, v);
+        if (set.addIfAbsent(v) != null) throw new IllegalStateException("Already decided on " + v);
+    }
+
+    /**
+     * Add all elements of a collection. When the set is empty, the backing table is sized once for the elements;
+     * each element is hashed once. Elements that are not yet present are added, even when others are rejected.
+     *
+     * @param elements The elements to be added.
+     * @throws IllegalStateException when some elements had been added before, or occur more than once in the
+     *                               argument, or when the set was already frozen. The message lists these elements.
+     * @throws NullPointerException  when an element is null.
+     */
+    @Only(before = "frozen")
+    @Modified
+    public void addAll(@NotNull(content = true) Collection<? extends V> elements) {
+        ensureNotFrozen();
+        ElementTable<V> s = set;
+        // only while empty: later calls leave the growth to add, which amortizes it
+        if (s.size() == 0) s.ensureCapacity(Math.min(1 << 30, elements.size()));
+        List<V> conflicts = null;
+        for (V v : elements) {
+            if (s.addIfAbsent(Objects.requireNonNull(v)) != null) {
+                if (conflicts == null) conflicts = new ArrayList<>();
+                conflicts.add(v);
+            }
+        }
+        if (conflicts != null) {
+            throw new IllegalStateException("Already decided on " + conflicts.size() + " element(s): " + conflicts);
+        }
     }
 
     /**
@@ -67,8 +157,10 @@ public class AddOnceSet<V> extends Freezable {
     @NotNull
     @NotModified
     public V get(@NotNull V v) {
-        if (!contains(v)) throw new IllegalStateException("Not yet decided on " + v);
-        return Objects.requireNonNull(set.get(v)); // causes potential null pointer exception warning; that's OK
+        ElementTable<V> s = set;
+        V stored = s != null ? s.get(v) : table.get(v);
+        if (stored == null) throw new IllegalStateException("Not yet decided on " + v);
+        return stored;
     }
 
     /**
@@ -79,7 +171,8 @@ public class AddOnceSet<V> extends Freezable {
      */
     @NotModified
     public boolean contains(@NotNull V v) {
-        return set.containsKey(v);
+        ElementTable<V> s = set;
+        return s != null ? s.get(v) != null : table.containsKey(v);
     }
 
     /**
@@ -89,7 +182,20 @@ public class AddOnceSet<V> extends Freezable {
      */
     @NotModified
     public boolean isEmpty() {
-        return set.isEmpty();
+        return size() == 0;
+    }
+
+    /**
+     * Obtain the counters of the Bloom filter in front of the lookups, when the set was frozen with
+     * {@link FreezeOptions#withBloomFilter(double)}.
+     *
+     * @return a snapshot of the counters, or null when the set is not frozen, or has no filter.
+     */
+    @Nullable
+    @NotModified
+    public FilterStatistics filterStatistics() {
+        FrozenTable<V, V> t = table;
+        return t instanceof FilteredTable ? ((FilteredTable<V, V>) t).statistics() : null;
     }
 
     /**
@@ -99,7 +205,8 @@ public class AddOnceSet<V> extends Freezable {
      */
     @NotModified
     public int size() {
-        return set.size();
+        ElementTable<V> s = set;
+        return s != null ? s.size() : table.size();
     }
 
     /**
@@ -111,11 +218,23 @@ public class AddOnceSet<V> extends Freezable {
      */
     @NotModified
     public void forEach(@NotNull(content = true) @Independent(hc = true) Consumer<V> consumer) {
-        set.keySet().forEach(consumer);
+        ElementTable<V> s = set;
+        if (s != null) {
+            for (int i = 0; i < s.size(); i++) consumer.accept(s.element(i));
+        } else {
+            FrozenTable<V, V> t = table;
+            for (int i = 0; i < t.size(); i++) consumer.accept(t.key(i));
+        }
+    }
+
+    @Override
+    void forEachNested(Consumer<Object> consumer) {
+        forEach(consumer::accept);
     }
 
     /**
-     * Return a stream of the elements of the set.
+     * Return a stream of the elements of the set. Once the set is frozen, the stream is array-based and splits
+     * evenly in parallel.
      *
      * @return A stream of the elements of the set. The stream will not contain nulls.
      */
@@ -123,18 +242,23 @@ public class AddOnceSet<V> extends Freezable {
     @NotNull(content = true)
     @Independent(hc = true)
     public Stream<V> stream() {
-        return set.keySet().stream();
+        ElementTable<V> s = set;
+        return StreamSupport.stream(s != null ? s.spliterator() : table.keySpliterator(), false);
     }
 
     /**
-     * Make a level 2 immutable copy of the underlying set. Requires Java 10+
+     * Make a level 2 immutable version of the underlying set. Requires Java 10+.
+     * Before freezing, this is a copy. Once the set is frozen, it is an unmodifiable view on the frozen content,
+     * which is created only once; every call returns the same object. The view iterates in insertion order.
      *
-     * @return a level 2 immutable copy of the underlying set.
+     * @return a level 2 immutable copy or view of the underlying set.
      */
     @NotModified
     @NotNull(content = true)
     @ImmutableContainer
     public Set<V> toImmutableSet() {
-        return Set.copyOf(set.keySet());
+        ElementTable<V> s = set;
+        return s != null ? StreamSupport.stream(s.spliterator(), false).collect(Collectors.toUnmodifiableSet())
+                : table.asSet();
     }
 }
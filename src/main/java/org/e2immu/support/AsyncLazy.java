@@ -0,0 +1,164 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.*;
+import org.e2immu.annotation.eventual.Mark;
+import org.e2immu.annotation.eventual.TestMark;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous version of {@link Lazy}: the supplier runs on an executor, rather than on the caller.
+ * The first request for the value starts the evaluation; callers can then wait for a future,
+ * or poll with the non-blocking {@link #getIfReady()}.
+ * Any executor works, including one which runs each task on a new virtual thread; blocking callers wait in
+ * {@link CompletableFuture#join()}, which does not pin a virtual thread.
+ * <p>
+ * The supplier is evaluated at most once when it succeeds, and is then released. When it fails, the waiting futures
+ * complete exceptionally, and the next request starts a new evaluation.
+ * Once the value is known, all accessors read a single volatile field.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ *
+ * @param <T> the container's content type
+ */
+@ImmutableContainer(after = "t", hc = true)
+public class AsyncLazy<T> {
+
+    private final Executor executor;
+    private final AtomicReference<CompletableFuture<T>> evaluation = new AtomicReference<>();
+
+    // null once the value has been computed; read only by the thread which installed a new evaluation
+    private Supplier<T> supplier;
+
+    @Final(after = "t")
+    private volatile T t;
+
+    /**
+     * Construct the lazy object by storing a supplier and an executor.
+     *
+     * @param supplier the supplier that will compute the value; it should not produce a null value
+     * @param executor the executor on which the supplier runs
+     * @throws NullPointerException when an argument is <code>null</code>
+     */
+    public AsyncLazy(@NotNull Supplier<T> supplier, @NotNull Executor executor) {
+        this.supplier = Objects.requireNonNull(supplier);
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    private CompletableFuture<T> start() {
+        while (true) {
+            CompletableFuture<T> current = evaluation.get();
+            if (current != null) return current;
+            CompletableFuture<T> created = new CompletableFuture<>();
+            if (evaluation.compareAndSet(null, created)) {
+                Supplier<T> s = supplier;
+                try {
+                    executor.execute(() -> evaluate(created, s));
+                } catch (RejectedExecutionException ree) {
+                    fail(created, ree);
+                }
+                return created;
+            }
+        }
+    }
+
+    private void evaluate(CompletableFuture<T> created, Supplier<T> s) {
+        T v;
+        try {
+            v = Objects.requireNonNull(s.get());
+        } catch (Throwable throwable) {
+            fail(created, throwable);
+            return;
+        }
+        t = v;
+        supplier = null;
+        created.complete(v);
+    }
+
+    private void fail(CompletableFuture<T> created, Throwable throwable) {
+        // first allow a new evaluation, then inform the waiting parties
+        evaluation.compareAndSet(created, null);
+        created.completeExceptionally(throwable);
+    }
+
+    /**
+     * Start the evaluation, if it has not been started yet, and return a future for the value.
+     * The future is a copy: completing it has no effect on this object.
+     *
+     * @return a future which completes with the value, or exceptionally when the supplier fails
+     */
+    @NotNull
+    @Modified
+    public CompletableFuture<T> future() {
+        T v = t;
+        if (v != null) return CompletableFuture.completedFuture(v);
+        return start().copy();
+    }
+
+    /**
+     * Obtain the value when it is known, without blocking. Starts the evaluation, if it has not been started yet.
+     *
+     * @return the value, or <code>null</code> when it is not known yet
+     */
+    @Nullable
+    @Modified
+    public T getIfReady() {
+        T v = t;
+        if (v != null) return v;
+        start();
+        return null;
+    }
+
+    /**
+     * Obtain the value, starting the evaluation if needed, and waiting for it to complete.
+     *
+     * @return the value
+     * @throws NullPointerException if the evaluation returns <code>null</code>
+     * @throws CompletionException  wrapping a checked exception thrown during evaluation; runtime exceptions
+     *                              and errors are rethrown as they are
+     */
+    @NotNull
+    @Modified
+    @Mark("t")
+    public T get() {
+        T v = t;
+        if (v != null) return v;
+        try {
+            return start().join();
+        } catch (CompletionException ce) {
+            Throwable cause = ce.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw ce;
+        }
+    }
+
+    /**
+     * @return true when the value is known
+     */
+    @NotModified
+    @TestMark("t")
+    public boolean hasBeenEvaluated() {
+        return t != null;
+    }
+}
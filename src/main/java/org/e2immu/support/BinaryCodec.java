@@ -0,0 +1,173 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.NotNull;
+import org.e2immu.annotation.type.UtilityClass;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Streaming binary encoding of frozen {@link SetOnceMap} and {@link AddOnceSet} objects.
+ * The format is a magic number, the number of entries, and then every key and value (or element), in iteration
+ * order, as written by the {@link Codec}s.
+ * <p>
+ * Reading decodes straight into arrays from which the frozen, compact representation is built: there is
+ * no intermediate map. The number of entries in the input is checked, but not trusted: the arrays grow as
+ * entries are read.
+ * Wrap streams in a buffered {@link java.io.DataOutputStream} or {@link java.io.DataInputStream}.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ */
+@UtilityClass
+public class BinaryCodec {
+
+    static final int MAP_MAGIC = 0x534F4D42; // "SOMB"
+    static final int SET_MAGIC = 0x414F5342; // "AOSB"
+
+    // the largest number of entries that the compact representation can index
+    static final int MAX_SIZE = 1 << 29;
+    private static final int INITIAL_LENGTH = 1 << 12;
+
+    private BinaryCodec() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Write a frozen map.
+     *
+     * @param map        the map, frozen
+     * @param keyCodec   the encoding of the keys
+     * @param valueCodec the encoding of the values
+     * @param out        the output
+     * @throws IllegalStateException when the map has not been frozen yet
+     * @throws IOException           when writing fails
+     */
+    public static <K, V> void writeMap(@NotNull SetOnceMap<K, V> map,
+                                       @NotNull Codec<? super K> keyCodec,
+                                       @NotNull Codec<? super V> valueCodec,
+                                       @NotNull DataOutput out) throws IOException {
+        map.ensureFrozen();
+        out.writeInt(MAP_MAGIC);
+        out.writeInt(map.size());
+        for (Cursor<K, V> c = map.cursor(); c.next(); ) {
+            keyCodec.write(out, c.key());
+            valueCodec.write(out, c.value());
+        }
+    }
+
+    /**
+     * Read a map written by {@link #writeMap}.
+     *
+     * @param keyCodec   the encoding of the keys
+     * @param valueCodec the encoding of the values
+     * @param in         the input
+     * @return a frozen map, with the same content and iteration order as the one written
+     * @throws IOException when reading fails, or the input is not valid
+     */
+    @NotNull
+    public static <K, V> SetOnceMap<K, V> readMap(@NotNull Codec<? extends K> keyCodec,
+                                                  @NotNull Codec<? extends V> valueCodec,
+                                                  @NotNull DataInput in) throws IOException {
+        int n = readHeader(in, MAP_MAGIC);
+        Object[] keys = new Object[initialLength(n)];
+        Object[] values = new Object[keys.length];
+        for (int i = 0; i < n; i++) {
+            if (i == keys.length) {
+                keys = grow(keys, n);
+                values = Arrays.copyOf(values, keys.length);
+            }
+            keys[i] = notNull(keyCodec.read(in));
+            values[i] = notNull(valueCodec.read(in));
+        }
+        return new SetOnceMap<>(BinaryCodec.<K, V>table(keys, values));
+    }
+
+    /**
+     * Write a frozen set.
+     *
+     * @param set   the set, frozen
+     * @param codec the encoding of the elements
+     * @param out   the output
+     * @throws IllegalStateException when the set has not been frozen yet
+     * @throws IOException           when writing fails
+     */
+    public static <V> void writeSet(@NotNull AddOnceSet<V> set,
+                                    @NotNull Codec<? super V> codec,
+                                    @NotNull DataOutput out) throws IOException {
+        set.ensureFrozen();
+        out.writeInt(SET_MAGIC);
+        out.writeInt(set.size());
+        for (V v : set.toImmutableSet()) {
+            codec.write(out, v);
+        }
+    }
+
+    /**
+     * Read a set written by {@link #writeSet}.
+     *
+     * @param codec the encoding of the elements
+     * @param in    the input
+     * @return a frozen set, with the same content and iteration order as the one written
+     * @throws IOException when reading fails, or the input is not valid
+     */
+    @NotNull
+    public static <V> AddOnceSet<V> readSet(@NotNull Codec<? extends V> codec,
+                                            @NotNull DataInput in) throws IOException {
+        int n = readHeader(in, SET_MAGIC);
+        Object[] elements = new Object[initialLength(n)];
+        for (int i = 0; i < n; i++) {
+            if (i == elements.length) elements = grow(elements, n);
+            elements[i] = notNull(codec.read(in));
+        }
+        return new AddOnceSet<>(BinaryCodec.<V, V>table(elements, elements));
+    }
+
+    private static int readHeader(DataInput in, int magic) throws IOException {
+        if (in.readInt() != magic) throw new IOException("Unexpected magic number");
+        int n = in.readInt();
+        if (n < 0) throw new IOException("Negative size: " + n);
+        if (n > MAX_SIZE) throw new IOException("Size too large: " + n);
+        return n;
+    }
+
+    /*
+    The size in the header is not trusted for allocation: the arrays start small, and grow as entries are actually
+    read, so that a corrupt or hostile header fails with an EOFException rather than an OutOfMemoryError.
+     */
+    private static int initialLength(int n) {
+        return Math.min(n, INITIAL_LENGTH);
+    }
+
+    private static Object[] grow(Object[] array, int n) {
+        return Arrays.copyOf(array, (int) Math.min(n, 2L * array.length));
+    }
+
+    private static Object notNull(Object decoded) throws IOException {
+        if (decoded == null) throw new IOException("Codec returned null");
+        return decoded;
+    }
+
+    private static <K, V> CompactTable<K, V> table(Object[] keys, Object[] values) throws IOException {
+        try {
+            return CompactTable.ofArrays(keys, values);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pluggable binary encoding of keys, values or elements, used by {@link BinaryCodec}.
+ * Implementations must read exactly what they wrote, and must not write or return null.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ *
+ * @param <T> The type of the objects encoded.
+ */
+public interface Codec<T> {
+
+    /**
+     * Strings as their length in UTF-8 bytes, followed by these bytes. Unlike {@link DataOutput#writeUTF},
+     * there is no limit of 64 kB.
+     */
+    Codec<String> STRING = new Codec<String>() {
+        @Override
+        public void write(DataOutput out, String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        @Override
+        public String read(DataInput in) throws IOException {
+            int length = in.readInt();
+            if (length < 0) throw new IOException("Negative string length: " + length);
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * Integers as 4 bytes.
+     */
+    Codec<Integer> INTEGER = new Codec<Integer>() {
+        @Override
+        public void write(DataOutput out, Integer i) throws IOException {
+            out.writeInt(i);
+        }
+
+        @Override
+        public Integer read(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    /**
+     * Longs as 8 bytes.
+     */
+    Codec<Long> LONG = new Codec<Long>() {
+        @Override
+        public void write(DataOutput out, Long l) throws IOException {
+            out.writeLong(l);
+        }
+
+        @Override
+        public Long read(DataInput in) throws IOException {
+            return in.readLong();
+        }
+    };
+
+    /**
+     * Encode an object.
+     *
+     * @param out the output
+     * @param t   the object, not null
+     * @throws IOException when writing fails
+     */
+    void write(@NotNull DataOutput out, @NotNull T t) throws IOException;
+
+    /**
+     * Decode an object.
+     *
+     * @param in the input
+     * @return the object, not null
+     * @throws IOException when reading fails, or the input is not valid
+     */
+    @NotNull
+    T read(@NotNull DataInput in) throws IOException;
+}
@@ -0,0 +1,191 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.ImmutableContainer;
+import org.e2immu.annotation.NotNull;
+import org.e2immu.annotation.Nullable;
+
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+/**
+ * Array-based {@link FrozenTable}, the default storage for the content of a frozen {@link SetOnceMap}
+ * or {@link AddOnceSet}. Keys and values are held, in insertion order, in one array of exactly the right length,
+ * each value next to its key, so that a lookup finds both in the same cache line. For sets, the array holds
+ * only the elements.
+ * <p>
+ * An open-addressing index of <code>int</code>s, at most three quarters full, maps the hash of a key to its
+ * position. A parallel array holds one byte of each key's hash, so that probing past other keys compares bytes,
+ * and almost only the key that is looked for is read and compared with <code>equals</code>.
+ * <p>
+ * Footprint, per entry, with compressed references: a <code>HashMap</code> costs a 32-byte node plus
+ * 4 to 8 bytes of table, a <code>LinkedHashMap</code> 8 bytes more. This table costs 8 bytes for the key and value
+ * references (4 for a set), plus 7 to 14 bytes of index. A lookup reads one index slot, one byte next to it,
+ * and one key in the common case, rather than following a table slot to a node and from there to the key.
+ *
+ * @param <K> The type for keys.
+ * @param <V> The type for values.
+ */
+@ImmutableContainer(hc = true)
+final class CompactTable<K, V> extends FrozenTable<K, V> {
+
+    // keys at i * stride, values at i * stride + stride - 1
+    private final Object[] data;
+    // 2 for maps, 1 for sets
+    private final int stride;
+    private final int size;
+    // position + 1 of the key; 0 means empty. The length is a power of two.
+    private final int[] slots;
+    // the highest byte of the hash of the key in the corresponding slot; the index uses the lowest bits
+    private final byte[] fingerprints;
+    private final int mask;
+
+    private CompactTable(Object[] data, int stride) {
+        this.data = data;
+        this.stride = stride;
+        this.size = data.length / stride;
+        int capacity = 2;
+        while (capacity < size + (size + 2) / 3) capacity <<= 1;
+        this.slots = new int[capacity];
+        this.fingerprints = new byte[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < size; i++) {
+            int h = hash(data[i * stride]);
+            int pos = h & mask;
+            while (slots[pos] != 0) pos = (pos + 1) & mask;
+            slots[pos] = i + 1;
+            fingerprints[pos] = (byte) (h >>> 24);
+        }
+    }
+
+    /**
+     * Copy the content of a map, in its iteration order.
+     *
+     * @param map the source, without null keys or values
+     * @return a new table
+     */
+    @NotNull
+    static <K, V> CompactTable<K, V> of(@NotNull Map<K, V> map) {
+        Object[] data = new Object[2 * map.size()];
+        int i = 0;
+        for (Map.Entry<K, V> e : map.entrySet()) {
+            data[i++] = e.getKey();
+            data[i++] = e.getValue();
+        }
+        return new CompactTable<>(data, 2);
+    }
+
+    /**
+     * Take ownership of an array of elements, which become both the keys and the values of the table.
+     *
+     * @param elements the elements, in iteration order, without nulls and without duplicates
+     * @return a new table whose values are its keys
+     */
+    @NotNull
+    static <V> CompactTable<V, V> ofSet(@NotNull Object[] elements) {
+        return new CompactTable<>(elements, 1);
+    }
+
+    /**
+     * Build a table from arrays of keys and values, for example freshly decoded ones. When both arrays are the same,
+     * the table represents a set and takes ownership of the array; otherwise, keys and values are copied.
+     *
+     * @param keys   the keys, without nulls
+     * @param values the values, without nulls, of the same length; may be the key array to represent a set
+     * @return a new table
+     * @throws IllegalArgumentException when a key occurs more than once
+     */
+    @NotNull
+    static <K, V> CompactTable<K, V> ofArrays(@NotNull Object[] keys, @NotNull Object[] values) {
+        if (keys.length != values.length) throw new IllegalArgumentException("Lengths differ");
+        CompactTable<K, V> table;
+        if (keys == values) {
+            table = new CompactTable<>(keys, 1);
+        } else {
+            Object[] data = new Object[2 * keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                data[2 * i] = keys[i];
+                data[2 * i + 1] = values[i];
+            }
+            table = new CompactTable<>(data, 2);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            // a duplicate is inserted further down the probe sequence of its first occurrence
+            if (table.indexOf(keys[i]) != i) throw new IllegalArgumentException("Duplicate key: " + keys[i]);
+        }
+        return table;
+    }
+
+    static int hash(Object key) {
+        return mix(key.hashCode());
+    }
+
+    /*
+    Spread the bits of a hash code, so that the low bits can be used as an index in a power-of-two sized table.
+    Also used by the primitive specializations.
+     */
+    static int mix(int hashCode) {
+        int h = hashCode * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    int indexOf(@Nullable Object key) {
+        if (key == null) return -1;
+        int h = hash(key);
+        byte fingerprint = (byte) (h >>> 24);
+        int pos = h & mask;
+        int slot;
+        while ((slot = slots[pos]) != 0) {
+            if (fingerprints[pos] == fingerprint) {
+                Object k = data[(slot - 1) * stride];
+                if (k == key || k.equals(key)) return slot - 1;
+            }
+            pos = (pos + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    K key(int i) {
+        return (K) data[i * stride];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    V value(int i) {
+        return (V) data[i * stride + stride - 1];
+    }
+
+    @Override
+    Spliterator<K> keySpliterator() {
+        if (stride == 1) return Spliterators.spliterator(data, CHARACTERISTICS | Spliterator.DISTINCT);
+        return super.keySpliterator();
+    }
+
+    @Override
+    Spliterator<V> valueSpliterator() {
+        if (stride == 1) return Spliterators.spliterator(data, CHARACTERISTICS);
+        return super.valueSpliterator();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.*;
+import org.e2immu.annotation.eventual.Mark;
+import org.e2immu.annotation.eventual.TestMark;
+
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Thread-safe version of {@link Lazy}: the supplier is evaluated exactly once, even when many threads ask for the
+ * value at the same time. Once the value is known, <code>get()</code> is a single volatile read, without locking.
+ * <p>
+ * Threads that arrive during the evaluation wait on a {@link ReentrantLock}, rather than on a monitor,
+ * so that virtual threads unmount while waiting. After a successful evaluation, the supplier is released,
+ * so that whatever it captured can be garbage collected. When the supplier throws an exception, the value remains
+ * unevaluated, and the next call tries again.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ *
+ * @param <T> the container's content type
+ */
+@ImmutableContainer(after = "t", hc = true)
+public class ConcurrentLazy<T> {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // null once the value has been computed; guarded by lock
+    private Supplier<T> supplier;
+
+    @Final(after = "t")
+    private volatile T t;
+
+    /**
+     * Construct the lazy object by storing a supplier.
+     *
+     * @param supplierParam the supplier that will compute the value; it should not produce a null value
+     * @throws NullPointerException when the argument is <code>null</code>
+     */
+    public ConcurrentLazy(Supplier<T> supplierParam) {
+        if (supplierParam == null) throw new NullPointerException("Null not allowed");
+        this.supplier = supplierParam;
+    }
+
+    /**
+     * Obtain the value, either by evaluation, if this is the first call, or from the cached field.
+     * Concurrent callers wait for the evaluation in progress.
+     *
+     * @return the value
+     * @throws NullPointerException  if the evaluation returns <code>null</code>
+     * @throws IllegalStateException if the supplier calls <code>get()</code> on this object
+     */
+    @NotNull
+    @Modified
+    @Mark(value = "t")
+    public T get() {
+        T v = t;
+        if (v != null) return v;
+        if (lock.isHeldByCurrentThread()) throw new IllegalStateException("Recursive evaluation");
+        lock.lock();
+        try {
+            v = t;
+            if (v == null) {
+                v = Objects.requireNonNull(supplier.get());
+                t = v;
+                supplier = null;
+            }
+            return v;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true when the lazy object has been evaluated
+     */
+    @NotModified
+    @TestMark("t")
+    public boolean hasBeenEvaluated() {
+        return t != null;
+    }
+}
@@ -0,0 +1,454 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.*;
+import org.e2immu.annotation.eventual.Mark;
+import org.e2immu.annotation.eventual.Only;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Thread-safe version of {@link SetOnceMap}: each key can be put only once, removal is not permitted,
+ * and once the map is frozen, elements cannot be added anymore. Null keys and values are not permitted.
+ * <p>
+ * While the map is being built, its content is held in a <code>ConcurrentHashMap</code>. Reads never block.
+ * Writers take no lock of this class, only the lock which the <code>ConcurrentHashMap</code> holds on the bin
+ * being written; they register themselves in a counter, so that <code>freeze()</code> can refuse new
+ * writers and wait for the ones in progress, before it moves the content into the same compact array representation
+ * as the one of a frozen {@link SetOnceMap}. The freezing thread parks while it waits.
+ * <p>
+ * Values can be generated asynchronously, with <code>getOrCreateAsync</code>: the first request for a key starts
+ * the generator on an executor, and every concurrent request for the same key receives the same future.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ *
+ * @param <K> The type for keys.
+ * @param <V> The type for values.
+ */
+@ImmutableContainer(after = "frozen", hc = true)
+public class ConcurrentSetOnceMap<K, V> extends Freezable {
+
+    private static final int FREEZING = 1 << 30;
+
+    // the maps whose generators the current thread is running, innermost last
+    private static final ThreadLocal<List<Object>> GENERATING = ThreadLocal.withInitial(ArrayList::new);
+
+    // number of writers in progress; the FREEZING bit is set as soon as freeze() starts
+    private final AtomicInteger writers = new AtomicInteger();
+
+    // the thread waiting in freeze() for the writers in progress
+    private volatile Thread freezer;
+
+    @Final(after = "frozen")
+    private volatile ConcurrentHashMap<K, V> map = new ConcurrentHashMap<>();
+
+    @Final(after = "frozen")
+    private volatile CompactTable<K, V> table;
+
+    // asynchronous computations in progress; each one counts as a writer until it has put its value
+    // created by the first call to getOrCreateAsync, so that maps which never compute asynchronously do not pay for it
+    private volatile ConcurrentHashMap<K, CompletableFuture<V>> pending;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<ConcurrentSetOnceMap, ConcurrentHashMap> PENDING =
+            AtomicReferenceFieldUpdater.newUpdater(ConcurrentSetOnceMap.class, ConcurrentHashMap.class, "pending");
+
+    /**
+     * Freeze the map, and move its content into a compact array representation.
+     * New writers are refused from the start of this call; writers that are in progress are allowed to finish.
+     * This includes asynchronous computations started by <code>getOrCreateAsync</code>, whose completion
+     * is awaited without spinning.
+     *
+     * @throws IllegalStateException when the map was already frozen, or is being frozen by another thread,
+     *                               or when called from within a generator of this map, which would wait for itself.
+     */
+    @Mark("frozen")
+    @Override
+    public void freeze() {
+        ensureNotFrozen();
+        for (Object generating : GENERATING.get()) {
+            if (generating == this) throw new IllegalStateException("Cannot freeze from within a generator");
+        }
+        int w;
+        do {
+            w = writers.get();
+            if ((w & FREEZING) != 0) throw new IllegalStateException("Already frozen!");
+        } while (!writers.compareAndSet(w, w | FREEZING));
+        // a writer which leaves before this write, is seen by the check below, before parking
+        freezer = Thread.currentThread();
+        ConcurrentHashMap<K, CompletableFuture<V>> p = pending;
+        for (CompletableFuture<V> future : p == null ? Collections.<CompletableFuture<V>>emptyList() : p.values()) {
+            try {
+                future.join();
+            } catch (CompletionException | CancellationException e) {
+                // the value is simply absent
+            }
+        }
+        while (writers.get() != FREEZING) {
+            LockSupport.park(this); // the last writer unparks us
+        }
+        freezer = null;
+        table = CompactTable.of(map);
+        map = null; // written after table: readers that see null here, see the table
+        super.freeze();
+    }
+
+    private void enter() {
+        int w;
+        do {
+            w = writers.get();
+            if ((w & FREEZING) != 0) throw new IllegalStateException("Already frozen!");
+        } while (!writers.compareAndSet(w, w + 1));
+    }
+
+    private void exit() {
+        if (writers.decrementAndGet() == FREEZING) LockSupport.unpark(freezer);
+    }
+
+    private ConcurrentHashMap<K, CompletableFuture<V>> pending() {
+        ConcurrentHashMap<K, CompletableFuture<V>> p = pending;
+        if (p != null) return p;
+        PENDING.compareAndSet(this, null, new ConcurrentHashMap<>());
+        return pending;
+    }
+
+    private <R> R generate(Function<? super K, ? extends R> generator, K k) {
+        List<Object> generating = GENERATING.get();
+        generating.add(this);
+        try {
+            return generator.apply(k);
+        } finally {
+            generating.remove(generating.size() - 1);
+        }
+    }
+
+    /**
+     * Put a key-value pair in the map. You cannot use the same key twice, not even with the same value.
+     * Null keys or values are not permitted.
+     *
+     * @param k the key, must not be null
+     * @param v the value, must not be null
+     * @throws IllegalStateException when the map is already frozen, or the key is already present
+     * @throws NullPointerException  when a parameter is null
+     */
+    @Only(before = "frozen")
+    @Modified
+    public void put(@NotNull K k, @NotNull V v) {
+        Objects.requireNonNull(k);
+        Objects.requireNonNull(v);
+        enter();
+        V prev;
+        try {
+            prev = map.putIfAbsent(k, v);
+        } finally {
+            exit();
+        }
+        if (prev != null) {
+            throw new IllegalStateException("Already decided on " + k + ": have " + prev + ", want to write " + v);
+        }
+    }
+
+    /**
+     * Get the value associated to the key already in the map, or generate one and put it in the map.
+     * When multiple threads race for the same key, the generator is called only once; the other threads
+     * wait for its result. The generator must not write to this map.
+     * <p>
+     * When an asynchronous computation of the key, started by <code>getOrCreateAsync</code>, is in progress,
+     * this method waits for its result rather than calling the generator, unless it is called from within
+     * a generator of this map. When that computation fails, the generator is called.
+     * A computation that is started at the same instant as this call, may still run alongside;
+     * the first value to be put is kept, and returned by both.
+     *
+     * @param k         the key
+     * @param generator the generator to generate a value, given the key, when the key has no value associated yet.
+     *                  The generator must generate a non-null value.
+     * @return either the value already present, or the value generated. This is the value in the map.
+     * @throws IllegalStateException when the map is already frozen
+     * @throws NullPointerException  when the generator generates a null value.
+     */
+    @Only(before = "frozen")
+    @NotNull
+    @Modified
+    public V getOrCreate(@NotNull K k, @Container(contract = true) @NotNull(content = true) Function<K, V> generator) {
+        ensureNotFrozen();
+        Objects.requireNonNull(k);
+        ConcurrentHashMap<K, V> m = map;
+        if (m != null) {
+            V v = m.get(k);
+            if (v != null) return v;
+        }
+        V computed = joinPending(k);
+        if (computed != null) return computed;
+        enter();
+        try {
+            return Objects.requireNonNull(map.computeIfAbsent(k, key -> generate(generator, key)));
+        } finally {
+            exit();
+        }
+    }
+
+    /*
+    Wait for an asynchronous computation of the key, if there is one. Not from within a generator of this map,
+    which may be the computation itself. Returns null when there is none, or when it failed.
+     */
+    private V joinPending(K k) {
+        ConcurrentHashMap<K, CompletableFuture<V>> p = pending;
+        if (p == null) return null;
+        CompletableFuture<V> future = p.get(k);
+        if (future == null) return null;
+        for (Object generating : GENERATING.get()) {
+            if (generating == this) return null;
+        }
+        try {
+            return future.join();
+        } catch (CompletionException | CancellationException e) {
+            return null; // generate synchronously
+        }
+    }
+
+    /**
+     * Get the value associated to the key, or generate one on an executor and put it in the map.
+     * The first request for a key records a future, and starts the generator; concurrent requests for the same key
+     * receive the same future, and do not start the generator again. When the generator fails, the future completes
+     * exceptionally, and a later request tries again. Any executor can be used, including one that starts
+     * a virtual thread per task.
+     * <p>
+     * Freezing the map waits for the computations in progress; from then on, their values are held in the compact
+     * representation of the frozen map.
+     *
+     * @param k         the key
+     * @param generator the generator to generate a value, given the key, when the key has no value associated yet.
+     *                  The generator must generate a non-null value, and must not write to, or freeze, this map.
+     * @param executor  the executor on which the generator runs
+     * @return a future, completed with the value already present, or completing with the value in the map once
+     * it has been generated. When the executor rejects the task, the future completes exceptionally.
+     * @throws IllegalStateException when the map is frozen, or being frozen, and the key has no value
+     */
+    @Only(before = "frozen")
+    @NotNull
+    @Modified
+    public CompletableFuture<V> getOrCreateAsync(
+            @NotNull K k,
+            @Container(contract = true) @NotNull Function<? super K, ? extends V> generator,
+            @NotNull Executor executor) {
+        Objects.requireNonNull(k);
+        Objects.requireNonNull(generator);
+        Objects.requireNonNull(executor);
+        V v = getOrDefaultNull(k);
+        if (v != null) return CompletableFuture.completedFuture(v);
+        enter();
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing;
+        ConcurrentHashMap<K, CompletableFuture<V>> pending = pending();
+        try {
+            existing = pending.putIfAbsent(k, created);
+            if (existing == null) {
+                V present = map.get(k);
+                if (present != null) {
+                    // put in between our first look and the registration of the future
+                    pending.remove(k, created);
+                    created.complete(present);
+                    existing = created;
+                }
+            }
+        } catch (RuntimeException e) {
+            exit();
+            throw e;
+        }
+        if (existing != null) {
+            exit();
+            return existing;
+        }
+        try {
+            executor.execute(() -> compute(k, generator, created));
+        } catch (RuntimeException e) {
+            pending.remove(k, created);
+            exit();
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    /*
+    Runs on the executor. The writer registered in getOrCreateAsync is released here, after the value has been put,
+    so that freeze() cannot move the content before the value is in the map. The future is completed last,
+    so that a request which sees it completed exceptionally, can start a new computation.
+     */
+    private void compute(K k, Function<? super K, ? extends V> generator, CompletableFuture<V> future) {
+        V result = null;
+        Throwable failure = null;
+        try {
+            V v = Objects.requireNonNull(generate(generator, k), "Generator returned null");
+            V prev = map.putIfAbsent(k, v);
+            result = prev != null ? prev : v;
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            pending.remove(k, future);
+            exit();
+        }
+        if (failure != null) {
+            future.completeExceptionally(failure);
+        } else {
+            future.complete(result);
+        }
+    }
+
+    /**
+     * Obtain the value for a given key, but only when the key is already present!
+     *
+     * @param k the key, not null
+     * @return the value, not null.
+     * @throws IllegalStateException when the key is not yet present.
+     */
+    @NotNull
+    @NotModified
+    public V get(@NotNull K k) {
+        V v = getOrDefaultNull(k);
+        if (v == null) throw new IllegalStateException("Not yet decided on " + k);
+        return v;
+    }
+
+    /**
+     * A more permissive method, which can be called whether the key is present or not.
+     *
+     * @param k the key.
+     * @return null when the key is not present, the value of the key otherwise.
+     */
+    @Nullable
+    @NotModified
+    public V getOrDefaultNull(@NotNull K k) {
+        if (k == null) return null;
+        ConcurrentHashMap<K, V> m = map;
+        return m != null ? m.get(k) : table.get(k);
+    }
+
+    /**
+     * A more permissive method, which can be called whether the key is present or not.
+     * Because the default value is not allowed to be null, the result is never null.
+     *
+     * @param k the key.
+     * @param v the value returned when the key is not present. Cannot be null.
+     * @return the second parameter when the key is not present, the value of the key otherwise.
+     */
+    @NotModified
+    @NotNull
+    public V getOrDefault(@NotNull K k, @NotNull V v) {
+        Objects.requireNonNull(v);
+        V value = getOrDefaultNull(k);
+        return value == null ? v : value;
+    }
+
+    /**
+     * Return the size of the map
+     *
+     * @return the size of the map.
+     */
+    @NotModified
+    public int size() {
+        ConcurrentHashMap<K, V> m = map;
+        return m != null ? m.size() : table.size();
+    }
+
+    /**
+     * Check if the key has been set.
+     *
+     * @param k the key
+     * @return <code>true</code> when a value has been put for this key.
+     */
+    @NotModified
+    public boolean isSet(K k) {
+        return getOrDefaultNull(k) != null;
+    }
+
+    /**
+     * Check if the map is empty.
+     *
+     * @return <code>true</code> when the map is empty.
+     */
+    @NotModified
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Return a stream of map keys. Before freezing, the stream is weakly consistent.
+     *
+     * @return a stream of map keys.
+     */
+    @NotNull(content = true)
+    @NotModified
+    @Independent(hc = true)
+    public Stream<K> keyStream() {
+        ConcurrentHashMap<K, V> m = map;
+        return m != null ? m.keySet().stream() : StreamSupport.stream(table.keySpliterator(), false);
+    }
+
+    /**
+     * Return a stream of map values. Before freezing, the stream is weakly consistent.
+     *
+     * @return a stream of map values.
+     */
+    @NotNull(content = true)
+    @NotModified
+    @Independent(hc = true)
+    public Stream<V> valueStream() {
+        ConcurrentHashMap<K, V> m = map;
+        return m != null ? m.values().stream() : StreamSupport.stream(table.valueSpliterator(), false);
+    }
+
+    /**
+     * Return a stream of entries which cannot be set. Before freezing, the stream is weakly consistent.
+     *
+     * @return a stream of entries.
+     */
+    @NotNull(content = true, contract = true)
+    @NotModified
+    @Independent(hc = true)
+    public Stream<Map.Entry<K, V>> stream() {
+        ConcurrentHashMap<K, V> m = map;
+        if (m != null) {
+            return m.entrySet().stream().map(e -> new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue()));
+        }
+        return StreamSupport.stream(table.entrySpliterator(AbstractMap.SimpleImmutableEntry::new), false);
+    }
+
+    /**
+     * Return a level 2 immutable version of the underlying map. Before freezing, this is a copy.
+     * Once the map is frozen, it is an unmodifiable view on the frozen content, which is created only once.
+     *
+     * @return a level 2 immutable copy or view
+     */
+    @NotNull
+    @NotModified
+    @ImmutableContainer
+    public Map<K, V> toImmutableMap() {
+        ConcurrentHashMap<K, V> m = map;
+        return m != null ? Map.copyOf(m) : table.asMap();
+    }
+}
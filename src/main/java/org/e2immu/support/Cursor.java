@@ -0,0 +1,58 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.Modified;
+import org.e2immu.annotation.NotModified;
+import org.e2immu.annotation.NotNull;
+
+/**
+ * Allocation-free iteration over the key-value pairs of a map. The same cursor object is positioned on each
+ * pair in turn:
+ * <pre>
+ * for (Cursor&lt;K, V&gt; c = map.cursor(); c.next(); ) {
+ *     use(c.key(), c.value());
+ * }
+ * </pre>
+ *
+ * @param <K> The type for keys.
+ * @param <V> The type for values.
+ */
+public interface Cursor<K, V> {
+
+    /**
+     * Move to the next pair. Must be called before the first pair can be read.
+     *
+     * @return <code>false</code> when there are no more pairs.
+     */
+    @Modified
+    boolean next();
+
+    /**
+     * @return the key of the current pair
+     * @throws IllegalStateException when the cursor is not positioned on a pair
+     */
+    @NotNull
+    @NotModified
+    K key();
+
+    /**
+     * @return the value of the current pair
+     * @throws IllegalStateException when the cursor is not positioned on a pair
+     */
+    @NotNull
+    @NotModified
+    V value();
+}
@@ -0,0 +1,156 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.Container;
+import org.e2immu.annotation.Modified;
+import org.e2immu.annotation.NotModified;
+import org.e2immu.annotation.NotNull;
+import org.e2immu.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+/**
+ * Growable, insertion-ordered hash set which stores every element exactly once, in a flat array,
+ * and can return the stored element that equals a given one. Used by {@link AddOnceSet} while it is being built.
+ * <p>
+ * The elements sit in insertion order in an array which grows by half when full; an open-addressing index of
+ * <code>int</code>s, at most half full, maps hashes to positions in that array, as in {@link CompactTable}.
+ * With compressed references, an element costs 4 to 6 bytes of array and 8 to 16 bytes of index,
+ * where a <code>LinkedHashMap</code> entry costs a 40-byte node and 4 to 8 bytes of table.
+ *
+ * @param <V> The type of the elements.
+ */
+@Container
+final class ElementTable<V> {
+
+    private Object[] elements;
+    private int size;
+    // position + 1 of the element in the array; 0 means empty. The length is a power of two.
+    private int[] slots;
+
+    ElementTable(int expectedSize) {
+        elements = new Object[Math.max(4, expectedSize)];
+        slots = new int[capacityFor(expectedSize)];
+    }
+
+    private static int capacityFor(int size) {
+        int capacity = 8;
+        while (capacity < 2 * size) capacity <<= 1;
+        return capacity;
+    }
+
+    /*
+    Returns the position in the array of the element, or, when absent, -(slot where it can be inserted) - 1.
+     */
+    private int find(Object v) {
+        int mask = slots.length - 1;
+        int pos = CompactTable.hash(v) & mask;
+        int slot;
+        while ((slot = slots[pos]) != 0) {
+            Object e = elements[slot - 1];
+            if (e == v || e.equals(v)) return slot - 1;
+            pos = (pos + 1) & mask;
+        }
+        return -pos - 1;
+    }
+
+    /**
+     * Add an element, unless an equal one is present.
+     *
+     * @param v the element, not null
+     * @return null when the element has been added, the element already present otherwise
+     */
+    @Nullable
+    @Modified
+    @SuppressWarnings("unchecked")
+    V addIfAbsent(@NotNull V v) {
+        int i = find(v);
+        if (i >= 0) return (V) elements[i];
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, (int) Math.min(Integer.MAX_VALUE - 8, size + (size >> 1) + 1L));
+        }
+        elements[size] = v;
+        size++;
+        slots[-i - 1] = size;
+        if (2 * size > slots.length) rehash(slots.length * 2);
+        return null;
+    }
+
+    /**
+     * Make room for the given total number of elements, so that adding them causes no further growth.
+     *
+     * @param expectedSize the total number of elements expected
+     */
+    @Modified
+    void ensureCapacity(int expectedSize) {
+        if (expectedSize > elements.length) elements = Arrays.copyOf(elements, expectedSize);
+        int capacity = capacityFor(expectedSize);
+        if (capacity > slots.length) rehash(capacity);
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < size; i++) {
+            int pos = CompactTable.hash(elements[i]) & mask;
+            while (slots[pos] != 0) pos = (pos + 1) & mask;
+            slots[pos] = i + 1;
+        }
+    }
+
+    /**
+     * @param v the element to look up
+     * @return the stored element equal to <code>v</code>, or null when there is none, or when <code>v</code> is null
+     */
+    @Nullable
+    @NotModified
+    @SuppressWarnings("unchecked")
+    V get(@Nullable Object v) {
+        if (v == null) return null;
+        int i = find(v);
+        return i >= 0 ? (V) elements[i] : null;
+    }
+
+    @NotModified
+    int size() {
+        return size;
+    }
+
+    @NotNull
+    @NotModified
+    @SuppressWarnings("unchecked")
+    V element(int i) {
+        return (V) elements[i];
+    }
+
+    /**
+     * @return the elements, in insertion order, in a new array of exactly the right length
+     */
+    @NotNull
+    @NotModified
+    Object[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+
+    @NotNull
+    @NotModified
+    Spliterator<V> spliterator() {
+        return Spliterators.spliterator(elements, 0, size,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT);
+    }
+}
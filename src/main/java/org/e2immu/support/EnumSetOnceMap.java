@@ -0,0 +1,217 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.*;
+import org.e2immu.annotation.eventual.Only;
+
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Specialization of {@link SetOnceMap} for enum keys. Each key can be put only once,
+ * removal is not permitted, and once the map is frozen, elements cannot be added anymore.
+ * Values must not be null.
+ * <p>
+ * Values are stored in an array indexed by the ordinal of the key, so that a lookup is a single array access.
+ * Iteration follows the order of the enum constants.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ *
+ * @param <E> The enum type for keys.
+ * @param <V> The type for values.
+ */
+@ImmutableContainer(after = "frozen", hc = true)
+public class EnumSetOnceMap<E extends Enum<E>, V> extends Freezable {
+
+    private final E[] universe;
+    private final Object[] values;
+    @Final(after = "frozen")
+    private int size;
+
+    /**
+     * Construct an empty map.
+     *
+     * @param enumClass the class of the keys
+     * @throws NullPointerException when the argument is <code>null</code>
+     */
+    public EnumSetOnceMap(@NotNull Class<E> enumClass) {
+        this.universe = enumClass.getEnumConstants();
+        this.values = new Object[universe.length];
+    }
+
+    /**
+     * Put a key-value pair in the map. You cannot use the same key twice, not even with the same value.
+     * Null keys or values are not permitted.
+     *
+     * @param k the key, must not be null
+     * @param v the value, must not be null
+     * @throws IllegalStateException when the map is already frozen, or the key is already present
+     * @throws NullPointerException  when a parameter is null
+     */
+    @Only(before = "frozen")
+    @Modified
+    public void put(@NotNull E k, @NotNull V v) {
+        Objects.requireNonNull(v);
+        ensureNotFrozen();
+        int i = k.ordinal();
+        if (values[i] != null) {
+            throw new IllegalStateException("Already decided on " + k + ": have " + values[i] + ", want to write " + v);
+        }
+        values[i] = v;
+        size++;
+    }
+
+    /**
+     * Get the value associated to the key already in the map, or generate one and put it in the map.
+     *
+     * @param k         the key
+     * @param generator the generator to generate a value, given the key, when the key has no value associated yet.
+     *                  The generator must generate a non-null value.
+     * @return either the value already present, or the value generated. This is the value in the map.
+     * @throws IllegalStateException when the map is already frozen
+     * @throws NullPointerException  when the generator generates a null value.
+     */
+    @Only(before = "frozen")
+    @NotNull
+    @Modified
+    @SuppressWarnings("unchecked")
+    public V getOrCreate(@NotNull E k, @Container(contract = true) @NotNull(content = true) Function<E, V> generator) {
+        ensureNotFrozen();
+        int i = k.ordinal();
+        if (values[i] != null) return (V) values[i];
+        V v = Objects.requireNonNull(generator.apply(k));
+        if (values[i] != null) {
+            throw new IllegalStateException("Generator put " + k + ": have " + values[i] + ", want to write " + v);
+        }
+        values[i] = v;
+        size++;
+        return v;
+    }
+
+    /**
+     * Obtain the value for a given key, but only when the key is already present!
+     *
+     * @param k the key, not null
+     * @return the value, not null.
+     * @throws IllegalStateException when the key is not yet present.
+     */
+    @NotNull
+    @NotModified
+    public V get(@NotNull E k) {
+        V v = getOrDefaultNull(k);
+        if (v == null) throw new IllegalStateException("Not yet decided on " + k);
+        return v;
+    }
+
+    /**
+     * A more permissive method, which can be called whether the key is present or not.
+     *
+     * @param k the key.
+     * @return null when the key is not present, the value of the key otherwise.
+     */
+    @Nullable
+    @NotModified
+    @SuppressWarnings("unchecked")
+    public V getOrDefaultNull(@NotNull E k) {
+        return (V) values[k.ordinal()];
+    }
+
+    /**
+     * A more permissive method, which can be called whether the key is present or not.
+     *
+     * @param k the key.
+     * @param v the value returned when the key is not present. Cannot be null.
+     * @return the second parameter when the key is not present, the value of the key otherwise.
+     */
+    @NotModified
+    @NotNull
+    public V getOrDefault(@NotNull E k, @NotNull V v) {
+        Objects.requireNonNull(v);
+        V value = getOrDefaultNull(k);
+        return value == null ? v : value;
+    }
+
+    /**
+     * Check if the key has been set.
+     *
+     * @param k the key
+     * @return <code>true</code> when a value has been put for this key.
+     */
+    @NotModified
+    public boolean isSet(@NotNull E k) {
+        return values[k.ordinal()] != null;
+    }
+
+    /**
+     * Return the size of the map
+     *
+     * @return the size of the map.
+     */
+    @NotModified
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check if the map is empty.
+     *
+     * @return <code>true</code> when the map is empty.
+     */
+    @NotModified
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Iterate over all key-value pairs, in the order of the enum constants.
+     *
+     * @param consumer receives the key and the value of each pair
+     */
+    @NotModified
+    @SuppressWarnings("unchecked")
+    public void forEach(@NotNull @Independent(hc = true) BiConsumer<E, V> consumer) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) consumer.accept(universe[i], (V) values[i]);
+        }
+    }
+
+    /**
+     * Return a stream of map keys.
+     *
+     * @return a stream of map keys.
+     */
+    @NotNull(content = true)
+    @NotModified
+    public Stream<E> keyStream() {
+        return IntStream.range(0, values.length).filter(i -> values[i] != null).mapToObj(i -> universe[i]);
+    }
+
+    /**
+     * Return a stream of map values.
+     *
+     * @return a stream of map values.
+     */
+    @NotNull(content = true)
+    @NotModified
+    @Independent(hc = true)
+    @SuppressWarnings("unchecked")
+    public Stream<V> valueStream() {
+        return IntStream.range(0, values.length).filter(i -> values[i] != null).mapToObj(i -> (V) values[i]);
+    }
+}
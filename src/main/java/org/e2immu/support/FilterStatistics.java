@@ -0,0 +1,102 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.ImmutableContainer;
+
+/**
+ * Snapshot of the counters of the Bloom filter which a frozen {@link SetOnceMap} or {@link AddOnceSet} puts
+ * in front of its lookups, when frozen with {@link FreezeOptions#withBloomFilter(double)}.
+ * Use it to tune the false-positive rate: when few lookups are rejected, the filter costs more than it saves.
+ * The counters are only maintained when the options include {@link FreezeOptions#withFilterStatistics()};
+ * otherwise, they are 0.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ */
+@ImmutableContainer
+public final class FilterStatistics {
+
+    private final boolean counted;
+    private final long rejected;
+    private final long passed;
+    private final long falsePositives;
+    private final long bits;
+    private final int hashFunctions;
+
+    FilterStatistics(boolean counted, long rejected, long passed, long falsePositives, long bits, int hashFunctions) {
+        this.counted = counted;
+        this.rejected = rejected;
+        this.passed = passed;
+        this.falsePositives = falsePositives;
+        this.bits = bits;
+        this.hashFunctions = hashFunctions;
+    }
+
+    /**
+     * @return true when the filter counts its decisions
+     */
+    public boolean isCounted() {
+        return counted;
+    }
+
+    /**
+     * @return the number of lookups answered by the filter alone, because the key is definitely absent
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the number of lookups which the filter passed on to the table
+     */
+    public long getPassed() {
+        return passed;
+    }
+
+    /**
+     * @return the number of lookups which the filter passed on, but which did not find the key
+     */
+    public long getFalsePositives() {
+        return falsePositives;
+    }
+
+    /**
+     * @return the fraction of lookups of absent keys which the filter passed on, or 0 when there were none
+     */
+    public double getFalsePositiveRate() {
+        long absent = rejected + falsePositives;
+        return absent == 0 ? 0 : (double) falsePositives / absent;
+    }
+
+    /**
+     * @return the size of the filter, in bits
+     */
+    public long getBits() {
+        return bits;
+    }
+
+    /**
+     * @return the number of bits set, and tested, per key
+     */
+    public int getHashFunctions() {
+        return hashFunctions;
+    }
+
+    @Override
+    public String toString() {
+        return "FilterStatistics{counted=" + counted + ", rejected=" + rejected + ", passed=" + passed
+                + ", falsePositives=" + falsePositives + ", bits=" + bits + ", hashFunctions=" + hashFunctions + '}';
+    }
+}
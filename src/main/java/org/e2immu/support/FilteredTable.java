@@ -0,0 +1,154 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.ImmutableContainer;
+import org.e2immu.annotation.NotNull;
+import org.e2immu.annotation.Nullable;
+
+import java.util.Spliterator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link FrozenTable} which answers most lookups of absent keys from a Bloom filter, before they reach the table
+ * that holds the content. The filter is blocked: all the bits of a key lie in the same block of 512 bits,
+ * one cache line, so that a lookup touches one line of the filter, and only reaches the table when all of its bits
+ * are set. The price is a false-positive rate slightly above that of a classic Bloom filter of the same size.
+ * <p>
+ * On request, the filter counts its decisions, see {@link FilterStatistics}. Counting is off by default,
+ * so that lookups in the frozen table do not write to shared memory.
+ *
+ * @param <K> The type for keys.
+ * @param <V> The type for values.
+ */
+@ImmutableContainer(hc = true)
+final class FilteredTable<K, V> extends FrozenTable<K, V> {
+
+    private static final int BLOCK_BITS = 512;
+    private static final int LONGS_PER_BLOCK = BLOCK_BITS / 64;
+
+    private final FrozenTable<K, V> table;
+    private final long[] bits;
+    private final int blocks;
+    private final int hashFunctions;
+
+    // null when the filter does not count its decisions
+    private final LongAdder rejected;
+    private final LongAdder passed;
+    private final LongAdder falsePositives;
+
+    /**
+     * @param table             the table holding the content
+     * @param falsePositiveRate the fraction of absent keys that the filter should let through, in (0, 1)
+     * @param count             whether to count the decisions of the filter
+     */
+    FilteredTable(@NotNull FrozenTable<K, V> table, double falsePositiveRate, boolean count) {
+        this.table = table;
+        this.rejected = count ? new LongAdder() : null;
+        this.passed = count ? new LongAdder() : null;
+        this.falsePositives = count ? new LongAdder() : null;
+        int n = Math.max(1, table.size());
+        double ln2 = Math.log(2);
+        double bitsPerKey = -Math.log(falsePositiveRate) / (ln2 * ln2);
+        long totalBits = (long) Math.ceil(n * bitsPerKey);
+        blocks = (int) Math.max(1, Math.min(Integer.MAX_VALUE / LONGS_PER_BLOCK,
+                (totalBits + BLOCK_BITS - 1) / BLOCK_BITS));
+        hashFunctions = (int) Math.max(1, Math.min(16, Math.round(bitsPerKey * ln2)));
+        bits = new long[blocks * LONGS_PER_BLOCK];
+        for (int i = 0; i < table.size(); i++) {
+            long h = hash(table.key(i));
+            int base = block(h);
+            int a = (int) h & (BLOCK_BITS - 1);
+            int b = ((int) (h >>> 9) & (BLOCK_BITS - 1)) | 1;
+            for (int j = 0; j < hashFunctions; j++) {
+                int bit = (a + j * b) & (BLOCK_BITS - 1);
+                bits[base + (bit >>> 6)] |= 1L << bit;
+            }
+        }
+    }
+
+    // the finalizer of 64-bit MurmurHash3, applied to the hash code
+    private static long hash(Object key) {
+        long x = key.hashCode();
+        x ^= x >>> 33;
+        x *= 0xFF51AFD7ED558CCDL;
+        x ^= x >>> 33;
+        x *= 0xC4CEB9FE1A85EC53L;
+        return x ^ (x >>> 33);
+    }
+
+    // index of the first long of the block, from the high bits of the hash
+    private int block(long h) {
+        return (int) (((h >>> 32) * blocks) >>> 32) * LONGS_PER_BLOCK;
+    }
+
+    private boolean mightContain(Object key) {
+        long h = hash(key);
+        int base = block(h);
+        int a = (int) h & (BLOCK_BITS - 1);
+        int b = ((int) (h >>> 9) & (BLOCK_BITS - 1)) | 1;
+        for (int j = 0; j < hashFunctions; j++) {
+            int bit = (a + j * b) & (BLOCK_BITS - 1);
+            if ((bits[base + (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    @Override
+    int indexOf(@Nullable Object key) {
+        if (key == null) return -1;
+        if (rejected == null) return mightContain(key) ? table.indexOf(key) : -1;
+        if (!mightContain(key)) {
+            rejected.increment();
+            return -1;
+        }
+        passed.increment();
+        int i = table.indexOf(key);
+        if (i < 0) falsePositives.increment();
+        return i;
+    }
+
+    @NotNull
+    FilterStatistics statistics() {
+        if (rejected == null) return new FilterStatistics(false, 0, 0, 0, 64L * bits.length, hashFunctions);
+        return new FilterStatistics(true, rejected.sum(), passed.sum(), falsePositives.sum(), 64L * bits.length,
+                hashFunctions);
+    }
+
+    @Override
+    int size() {
+        return table.size();
+    }
+
+    @Override
+    K key(int i) {
+        return table.key(i);
+    }
+
+    @Override
+    V value(int i) {
+        return table.value(i);
+    }
+
+    @Override
+    Spliterator<K> keySpliterator() {
+        return table.keySpliterator();
+    }
+
+    @Override
+    Spliterator<V> valueSpliterator() {
+        return table.valueSpliterator();
+    }
+}
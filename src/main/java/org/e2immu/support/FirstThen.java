@@ -19,7 +19,14 @@ import org.e2immu.annotation.eventual.Mark;
 import org.e2immu.annotation.eventual.Only;
 import org.e2immu.annotation.eventual.TestMark;
 
+import java.time.Duration;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 /**
  * An object which first holds an object of type <code>S</code>, and, in the second and final stage of its life-cycle,
@@ -27,6 +34,8 @@ import java.util.Objects;
  * <p>
  * This class is eventually level 2 immutable: once the second stage has been reached, its fields cannot be changed anymore.
  * <p>
+ * Threads can wait for the final value with {@link #await()}, or register listeners with {@link #onSet(Consumer)}.
+ * <p>
  * This is an example class! Please extend and modify for your needs.
  *
  * @param <S> type of the <em>before</em> state
@@ -40,6 +49,9 @@ public class FirstThen<S, T> {
     @Final(after = "first")
     private volatile T then;
 
+    // created on demand, only when a thread waits or listens before the final value is set; guarded by this
+    private CompletableFuture<T> promise;
+
     /**
      * Constructor, start in the <em>before</em> state
      *
@@ -83,13 +95,86 @@ public class FirstThen<S, T> {
     @Mark("first")
     public void set(@NotNull T then) {
         Objects.requireNonNull(then);
+        CompletableFuture<T> p;
         synchronized (this) {
             if (first == null) throw new IllegalStateException("Already set");
             this.then = then;
             first = null;
+            p = promise;
+        }
+        // listeners run after publication, outside the lock
+        if (p != null) p.complete(then);
+    }
+
+    private CompletableFuture<T> promise() {
+        if (first == null) return CompletableFuture.completedFuture(then);
+        synchronized (this) {
+            if (first == null) return CompletableFuture.completedFuture(then);
+            if (promise == null) promise = new CompletableFuture<>();
+            return promise;
+        }
+    }
+
+    /**
+     * Wait until the object has transitioned into the final stage.
+     *
+     * @return The final value
+     * @throws InterruptedException when the waiting thread is interrupted
+     */
+    @NotNull
+    @NotModified
+    public T await() throws InterruptedException {
+        try {
+            return promise().get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e); // cannot happen, the promise never fails
         }
     }
 
+    /**
+     * Wait until the object has transitioned into the final stage, or the timeout has passed.
+     *
+     * @param timeout the maximal time to wait
+     * @return The final value, or <code>null</code> when the timeout passed before the final value was set
+     * @throws InterruptedException when the waiting thread is interrupted
+     */
+    @Nullable
+    @NotModified
+    public T await(@NotNull Duration timeout) throws InterruptedException {
+        try {
+            return promise().get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e); // cannot happen, the promise never fails
+        }
+    }
+
+    /**
+     * A read-only view which completes with the final value. It cannot be completed from the outside.
+     *
+     * @return a completion stage with the final value
+     */
+    @NotNull
+    @NotModified
+    public CompletionStage<T> toCompletionStage() {
+        return promise().minimalCompletionStage();
+    }
+
+    /**
+     * Register a listener, which runs exactly once, with the final value, after it has been set:
+     * immediately, on the calling thread, when the object is already in its final stage; otherwise on the thread
+     * that calls <code>set</code>, after the value has been published. Exceptions thrown by the listener are not
+     * propagated.
+     *
+     * @param listener the listener
+     */
+    @NotModified
+    public void onSet(@NotNull Consumer<? super T> listener) {
+        Objects.requireNonNull(listener);
+        promise().thenAccept(listener);
+    }
+
     /**
      * Getter for the initial value.
      *
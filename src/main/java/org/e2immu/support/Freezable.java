@@ -16,10 +16,13 @@ package org.e2immu.support;
 
 import org.e2immu.annotation.Final;
 import org.e2immu.annotation.ImmutableContainer;
+import org.e2immu.annotation.Modified;
 import org.e2immu.annotation.eventual.Mark;
 import org.e2immu.annotation.eventual.Only;
 import org.e2immu.annotation.eventual.TestMark;
 
+import java.util.function.Consumer;
+
 /**
  * Super-class for eventually immutable types.
  * The life cycle of the class has two states: an initial one, and a final one.
@@ -31,25 +34,63 @@ import org.e2immu.annotation.eventual.TestMark;
  * Methods that can only be called when the class is in its immutable state should call
  * <code>ensureFrozen</code> as their first statement.
  * <p>
+ * Objects can share their frozen state with other objects by joining a {@link FreezeGroup}: they read the flag of
+ * the group rather than their own, and are all frozen by freezing the group.
+ * <p>
+ * An object which is built by a single thread can be confined to that thread, with
+ * <code>confineToCurrentThread()</code>, right after construction and before it is shared. From then on, its
+ * frozen state is kept in a plain field, so that the checks in the build phase cost no volatile read.
+ * Freezing releases the reference to the owning thread. The mode only concerns the build phase:
+ * like any object built without synchronization, a confined object must be published safely once frozen,
+ * e.g., through a volatile field, a concurrent collection, or a thread hand-off.
+ * <p>
  * This is an example class! Please extend and modify for your needs.
  */
 
 @ImmutableContainer(after = "frozen", hc = true)
 public abstract class Freezable {
 
+    private static final byte CONFINED = 1;
+    private static final byte CONFINED_FROZEN = 2;
+
     @Final(after = "frozen")
     private volatile boolean frozen;
 
+    /*
+    In the default mode, the freeze group of which the object is a member, if any; the object is frozen when
+    the group is, and the field frozen is not used.
+    In the confined mode, the thread which owns the object, until the object is frozen.
+     */
+    @Final(after = "frozen")
+    private Object context;
+
+    // 0 in the default mode; CONFINED, and once frozen also CONFINED_FROZEN, in the confined mode
+    @Final(after = "frozen")
+    private byte mode;
+
     /**
      * The method that transitions the object from initial to final state.
      * This method can only be called once on each object.
+     * When the object is a member of a {@link FreezeGroup} which is not being frozen, it leaves the group,
+     * and is frozen on its own.
      *
      * @throws IllegalStateException when the object was already frozen.
      */
     @Mark("frozen")
     public void freeze() {
         ensureNotFrozen();
-        frozen = true;
+        if (mode != 0) {
+            mode |= CONFINED_FROZEN;
+            context = null;
+            return;
+        }
+        FreezeGroup g = (FreezeGroup) context;
+        if (g == null || g.state() != FreezeGroup.FREEZING) {
+            context = null;
+            frozen = true;
+        }
+        // otherwise, this thread is freezing the object on behalf of the group, which sets its flag
+        // once all members have been frozen
     }
 
     /**
@@ -59,17 +100,65 @@ public abstract class Freezable {
      */
     @TestMark("frozen")
     public boolean isFrozen() {
-        return frozen;
+        byte m = mode;
+        if (m != 0) return (m & CONFINED_FROZEN) != 0;
+        FreezeGroup g = (FreezeGroup) context;
+        return g != null ? g.state() == FreezeGroup.FROZEN : frozen;
     }
 
     /**
      * A check to ensure that the object is still in the initial, non-frozen state.
      *
-     * @throws IllegalStateException when the object is already in the final, frozen state.
+     * @throws IllegalStateException when the object is already in the final, frozen state, when it is confined
+     *                               to another thread, or when its freeze group is being frozen.
      */
     @Only(before = "frozen")
     public void ensureNotFrozen() {
-        if (frozen) throw new IllegalStateException("Already frozen!");
+        byte m = mode;
+        if (m != 0) {
+            if ((m & CONFINED_FROZEN) != 0) throw new IllegalStateException("Already frozen!");
+            Object owner = context;
+            if (owner != Thread.currentThread()) {
+                throw new IllegalStateException("Confined to thread " + ((Thread) owner).getName());
+            }
+            return;
+        }
+        FreezeGroup g = (FreezeGroup) context;
+        if (g == null) {
+            if (frozen) throw new IllegalStateException("Already frozen!");
+            return;
+        }
+        int state = g.state(); // the only volatile read for a member of a group
+        if (state == FreezeGroup.FROZEN) {
+            throw new IllegalStateException("Already frozen!");
+        }
+        if (state == FreezeGroup.FREEZING && !FreezeGroup.isBeingFrozenHere(this)) {
+            throw new IllegalStateException("Being frozen by its group");
+        }
+    }
+
+    /**
+     * Confine the object to the current thread until it is frozen: only this thread can modify it, and its frozen
+     * state is held in a plain field, rather than a volatile one. Call this method right after construction,
+     * before the object is shared.
+     *
+     * @throws IllegalStateException when the object is frozen, already confined, or member of a freeze group.
+     */
+    @Only(before = "frozen")
+    @Modified
+    public void confineToCurrentThread() {
+        ensureNotFrozen();
+        if (mode != 0) throw new IllegalStateException("Already confined");
+        if (context != null) throw new IllegalStateException("Member of a freeze group");
+        context = Thread.currentThread();
+        mode = CONFINED;
+    }
+
+    /**
+     * @return <code>true</code> when the object has been confined to the thread that builds it.
+     */
+    public boolean isThreadConfined() {
+        return mode != 0;
     }
 
     /**
@@ -79,7 +168,37 @@ public abstract class Freezable {
      */
     @Only(after = "frozen")
     public void ensureFrozen() {
-        if (!frozen) throw new IllegalStateException("Not yet frozen!");
+        if (!isFrozen()) throw new IllegalStateException("Not yet frozen!");
+    }
+
+    /*
+    Called by FreezeGroup, with the group's lock.
+     */
+    void join(FreezeGroup group) {
+        if (mode != 0) throw new IllegalStateException("Confined to a thread");
+        if (context != null) throw new IllegalStateException("Already member of a freeze group");
+        ensureNotFrozen();
+        this.context = group;
+    }
+
+    /*
+    Called by FreezeGroup, with the group's lock, when freezing the group fails.
+     */
+    void leaveGroup(boolean frozen) {
+        context = null;
+        if (frozen) this.frozen = true;
+    }
+
+    FreezeGroup group() {
+        return mode == 0 ? (FreezeGroup) context : null;
+    }
+
+    /*
+    Present the objects held by this container, so that FreezeGroup can freeze nested containers.
+    Called after the content has been frozen. Override in containers; the default holds nothing.
+     */
+    void forEachNested(Consumer<Object> consumer) {
+        // nothing nested
     }
 
 }
@@ -0,0 +1,233 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.*;
+import org.e2immu.annotation.eventual.Mark;
+import org.e2immu.annotation.eventual.Only;
+import org.e2immu.annotation.eventual.TestMark;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * A set of {@link Freezable} objects which share one frozen flag, and are frozen together.
+ * Members check the flag of the group, rather than their own; freezing the group freezes every member,
+ * moving their content into its frozen representation, and then makes them all immutable with a single
+ * volatile write.
+ * <p>
+ * Members can be frozen in parallel. A deep freeze also freezes the containers nested in the members,
+ * such as the <code>AddOnceSet</code> values of a <code>SetOnceMap</code>, when they are not frozen yet and do not
+ * belong to another group; they join this group, and share its flag.
+ * <p>
+ * A member which is frozen on its own, before the group, leaves the group. While the group is being frozen,
+ * its members cannot be modified or frozen by other means.
+ * <p>
+ * When freezing a member fails, the group is reset: the members which had been frozen leave the group, frozen on
+ * their own, the others remain, and the group can be frozen again. The exception is rethrown.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ */
+@ImmutableContainer(after = "frozen")
+public final class FreezeGroup {
+
+    static final int OPEN = 0;
+    static final int FREEZING = 1;
+    static final int FROZEN = 2;
+
+    // the member which the current thread is freezing on behalf of a group
+    private static final ThreadLocal<Freezable> BEING_FROZEN = new ThreadLocal<>();
+
+    // written under this
+    @Final(after = "frozen")
+    private volatile int state;
+
+    // guarded by this
+    private final List<Freezable> members = new ArrayList<>();
+
+    // guarded by this; bookkeeping of a freeze in progress, identity-based
+    private final Set<Freezable> claimed = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<Freezable> completed = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<Freezable> joined = new ArrayList<>();
+
+    /**
+     * Add an object to the group.
+     *
+     * @param freezable the object, not frozen, and not a member of a group yet
+     * @param <T>       the type of the object
+     * @return the object
+     * @throws IllegalStateException when the group or the object is frozen, or when the object is already a member
+     *                               of a group.
+     */
+    @Only(before = "frozen")
+    @Modified
+    @NotNull
+    public <T extends Freezable> T add(@NotNull T freezable) {
+        Objects.requireNonNull(freezable);
+        synchronized (this) {
+            if (state != OPEN) throw new IllegalStateException("Already frozen!");
+            freezable.join(this);
+            members.add(freezable);
+        }
+        return freezable;
+    }
+
+    /**
+     * @return the number of objects added to the group.
+     */
+    @NotModified
+    public synchronized int size() {
+        return members.size();
+    }
+
+    /**
+     * @return <code>true</code> when the group, and therefore all of its members, are frozen.
+     */
+    @TestMark("frozen")
+    public boolean isFrozen() {
+        return state == FROZEN;
+    }
+
+    // a single volatile read, so that members can branch on one consistent value
+    int state() {
+        return state;
+    }
+
+    // true when the current thread is freezing this member, on behalf of a group; only meaningful while
+    // the group is freezing
+    static boolean isBeingFrozenHere(Freezable freezable) {
+        return BEING_FROZEN.get() == freezable;
+    }
+
+    /**
+     * Freeze all members, one after the other.
+     *
+     * @throws IllegalStateException when the group was already frozen, or is being frozen.
+     */
+    @Mark("frozen")
+    public void freeze() {
+        freeze(false, false);
+    }
+
+    /**
+     * Freeze all members.
+     *
+     * @param parallel when <code>true</code>, members are frozen in parallel, in the common fork-join pool.
+     * @throws IllegalStateException when the group was already frozen, or is being frozen.
+     */
+    @Mark("frozen")
+    public void freeze(boolean parallel) {
+        freeze(parallel, false);
+    }
+
+    /**
+     * Freeze all members, and the containers nested in them, recursively.
+     *
+     * @param parallel when <code>true</code>, members are frozen in parallel, in the common fork-join pool.
+     * @throws IllegalStateException when the group was already frozen, or is being frozen.
+     */
+    @Mark("frozen")
+    public void freezeDeep(boolean parallel) {
+        freeze(parallel, true);
+    }
+
+    private void freeze(boolean parallel, boolean deep) {
+        List<Freezable> list;
+        synchronized (this) {
+            if (state != OPEN) throw new IllegalStateException("Already frozen!");
+            state = FREEZING;
+            list = new ArrayList<>(members);
+        }
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Consumer<Freezable> task = f -> {
+            if (failure.get() != null) return;
+            try {
+                freezeMember(f, deep);
+            } catch (RuntimeException | Error e) {
+                failure.compareAndSet(null, e);
+            }
+        };
+        if (parallel) {
+            list.parallelStream().forEach(task);
+        } else {
+            list.forEach(task);
+        }
+        Throwable throwable = failure.get();
+        if (throwable != null) {
+            reset();
+            if (throwable instanceof Error) throw (Error) throwable;
+            throw (RuntimeException) throwable;
+        }
+        synchronized (this) {
+            claimed.clear();
+            completed.clear();
+            joined.clear();
+            state = FROZEN;
+        }
+    }
+
+    /*
+    Members which have been frozen leave the group, frozen on their own. Nested objects which joined during
+    this freeze, but have not been frozen, leave the group unfrozen. The others remain members.
+     */
+    private synchronized void reset() {
+        for (Freezable f : completed) f.leaveGroup(true);
+        for (Freezable f : joined) {
+            if (!completed.contains(f)) f.leaveGroup(false);
+        }
+        members.removeIf(completed::contains);
+        claimed.clear();
+        completed.clear();
+        joined.clear();
+        state = OPEN;
+    }
+
+    private synchronized boolean claim(Freezable freezable) {
+        return claimed.add(freezable);
+    }
+
+    private void freezeMember(Freezable freezable, boolean deep) {
+        // members that were frozen on their own, have left the group; one task claims each member
+        if (freezable.group() != this || !claim(freezable)) return;
+        Freezable previous = BEING_FROZEN.get();
+        BEING_FROZEN.set(freezable);
+        try {
+            freezable.freeze();
+        } finally {
+            if (previous == null) BEING_FROZEN.remove();
+            else BEING_FROZEN.set(previous);
+        }
+        synchronized (this) {
+            completed.add(freezable);
+        }
+        if (deep) freezable.forEachNested(this::freezeNested);
+    }
+
+    private void freezeNested(Object object) {
+        if (!(object instanceof Freezable)) return;
+        Freezable nested = (Freezable) object;
+        if (nested.group() != this) {
+            synchronized (this) {
+                // another thread may have made it join in the meantime; it is then claimed below
+                if (nested.group() == null && !nested.isFrozen() && !nested.isThreadConfined()) {
+                    nested.join(this);
+                    joined.add(nested);
+                }
+            }
+        }
+        freezeMember(nested, true);
+    }
+}
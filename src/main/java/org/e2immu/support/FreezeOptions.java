@@ -0,0 +1,147 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.ImmutableContainer;
+import org.e2immu.annotation.NotNull;
+
+import java.util.Map;
+
+/**
+ * Options for the representation which {@link SetOnceMap} and {@link AddOnceSet} build when they are frozen.
+ * Objects of this class are immutable; start from {@link #DEFAULT} and add options with the <code>with</code>
+ * methods.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ */
+@ImmutableContainer
+public final class FreezeOptions {
+
+    /**
+     * The default representation: keys and values in insertion-ordered arrays, with an open-addressing index.
+     */
+    public static final FreezeOptions DEFAULT = new FreezeOptions(false, 0, false);
+
+    private final boolean perfectHash;
+    // 0 when there is no filter
+    private final double falsePositiveRate;
+    private final boolean filterStatistics;
+
+    private FreezeOptions(boolean perfectHash, double falsePositiveRate, boolean filterStatistics) {
+        this.perfectHash = perfectHash;
+        this.falsePositiveRate = falsePositiveRate;
+        this.filterStatistics = filterStatistics;
+    }
+
+    /**
+     * Index the keys with a minimal perfect hash function. Freezing takes longer, but every lookup costs exactly
+     * one slot and one <code>equals</code>, and the index takes a fraction of the memory.
+     * When two keys have the same hash code, no such function exists, and the default representation is used.
+     * Iteration order remains insertion order.
+     *
+     * @return new options, with a minimal perfect hash
+     */
+    @NotNull
+    public FreezeOptions withPerfectHash() {
+        return new FreezeOptions(true, falsePositiveRate, filterStatistics);
+    }
+
+    /**
+     * Put a Bloom filter in front of the lookups, so that most lookups of absent keys are answered from a small
+     * bitmap, without probing the table or calling <code>equals</code>. The filter costs about
+     * <code>1.44 * log2(1 / falsePositiveRate)</code> bits per key. It pays off when most lookups are for absent keys.
+     *
+     * @param falsePositiveRate the fraction of lookups of absent keys which the filter should let through,
+     *                          e.g., 0.01
+     * @return new options, with a Bloom filter
+     * @throws IllegalArgumentException when the rate is not strictly between 0 and 1
+     */
+    @NotNull
+    public FreezeOptions withBloomFilter(double falsePositiveRate) {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False-positive rate must be in (0, 1): " + falsePositiveRate);
+        }
+        return new FreezeOptions(perfectHash, falsePositiveRate, filterStatistics);
+    }
+
+    /**
+     * Let the Bloom filter count its decisions, see {@link FilterStatistics}. Use this while tuning the
+     * false-positive rate: every lookup then increments a shared counter, which costs more than the filter check
+     * itself when many threads read. Without this option, lookups do not write anything.
+     * Has no effect without {@link #withBloomFilter(double)}.
+     *
+     * @return new options, with counting filter decisions
+     */
+    @NotNull
+    public FreezeOptions withFilterStatistics() {
+        return new FreezeOptions(perfectHash, falsePositiveRate, true);
+    }
+
+    public boolean isPerfectHash() {
+        return perfectHash;
+    }
+
+    public boolean hasBloomFilter() {
+        return falsePositiveRate > 0;
+    }
+
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    public boolean hasFilterStatistics() {
+        return filterStatistics;
+    }
+
+    @NotNull
+    <K, V> FrozenTable<K, V> table(@NotNull Map<K, V> map) {
+        return filter(unfilteredTable(map));
+    }
+
+    private <K, V> FrozenTable<K, V> unfilteredTable(Map<K, V> map) {
+        if (!perfectHash) return CompactTable.of(map);
+        int n = map.size();
+        Object[] keys = new Object[n];
+        Object[] values = new Object[n];
+        int i = 0;
+        for (Map.Entry<K, V> e : map.entrySet()) {
+            keys[i] = e.getKey();
+            values[i] = e.getValue();
+            i++;
+        }
+        return table(keys, values);
+    }
+
+    @NotNull
+    <V> FrozenTable<V, V> tableOfSet(@NotNull Object[] elements) {
+        if (!perfectHash) return filter(CompactTable.<V>ofSet(elements));
+        return filter(table(elements, elements));
+    }
+
+    private <K, V> FrozenTable<K, V> filter(FrozenTable<K, V> table) {
+        return falsePositiveRate > 0 ? new FilteredTable<>(table, falsePositiveRate, filterStatistics) : table;
+    }
+
+    private <K, V> FrozenTable<K, V> table(Object[] keys, Object[] values) {
+        PerfectHashTable<K, V> table = PerfectHashTable.of(keys, values);
+        return table != null ? table : CompactTable.ofArrays(keys, values);
+    }
+
+    @Override
+    public String toString() {
+        return "FreezeOptions{perfectHash=" + perfectHash + ", falsePositiveRate=" + falsePositiveRate
+                + ", filterStatistics=" + filterStatistics + '}';
+    }
+}
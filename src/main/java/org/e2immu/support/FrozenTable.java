@@ -0,0 +1,537 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.ImmutableContainer;
+import org.e2immu.annotation.NotModified;
+import org.e2immu.annotation.NotNull;
+import org.e2immu.annotation.Nullable;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Read-only storage for the content of a frozen container, such as {@link SetOnceMap} or {@link AddOnceSet}.
+ * Entries are numbered from 0 to <code>size() - 1</code>; implementations provide access by number, and a lookup
+ * from key to number. Everything else is derived from these four methods.
+ * <p>
+ * The table can be viewed as an unmodifiable {@link Map} or {@link Set} without copying; these views are
+ * created once per table. All their modifying methods throw an <code>UnsupportedOperationException</code>.
+ * <p>
+ * The spliterators of the table, and of its views, split exactly in half, and report
+ * <code>SIZED</code>, <code>SUBSIZED</code>, <code>IMMUTABLE</code>, <code>NONNULL</code> and <code>ORDERED</code>,
+ * and <code>DISTINCT</code> for keys and entries, so that parallel streams divide the work evenly.
+ *
+ * @param <K> The type for keys.
+ * @param <V> The type for values.
+ */
+@ImmutableContainer(hc = true)
+abstract class FrozenTable<K, V> {
+
+    // views, created on demand; a race creates an equivalent view, which is harmless
+    private Map<K, V> mapView;
+    private Set<K> keySetView;
+
+    /**
+     * @return the number of entries
+     */
+    @NotModified
+    abstract int size();
+
+    /**
+     * @param i the number of an entry, between 0 and <code>size() - 1</code>
+     * @return the key of the entry
+     */
+    @NotNull
+    @NotModified
+    abstract K key(int i);
+
+    /**
+     * @param i the number of an entry, between 0 and <code>size() - 1</code>
+     * @return the value of the entry
+     */
+    @NotNull
+    @NotModified
+    abstract V value(int i);
+
+    /**
+     * Find the number of the entry of a key.
+     *
+     * @param key the key
+     * @return the number of the entry, or -1 when the key is not present, or null.
+     */
+    @NotModified
+    abstract int indexOf(@Nullable Object key);
+
+    @Nullable
+    @NotModified
+    V get(@Nullable Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : value(i);
+    }
+
+    @NotModified
+    boolean containsKey(@Nullable Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    /*
+    Cursor over the table; allocates nothing but itself.
+     */
+    @NotNull
+    Cursor<K, V> cursor() {
+        return new Cursor<K, V>() {
+            private int i = -1;
+
+            @Override
+            public boolean next() {
+                if (i < size()) i++;
+                return i < size();
+            }
+
+            @Override
+            public K key() {
+                if (i < 0 || i >= size()) throw new IllegalStateException("No current element");
+                return FrozenTable.this.key(i);
+            }
+
+            @Override
+            public V value() {
+                if (i < 0 || i >= size()) throw new IllegalStateException("No current element");
+                return FrozenTable.this.value(i);
+            }
+        };
+    }
+
+    static final int CHARACTERISTICS = Spliterator.IMMUTABLE | Spliterator.NONNULL | Spliterator.ORDERED;
+
+    @NotNull
+    Spliterator<K> keySpliterator() {
+        return new IndexSpliterator<>(0, size(), this::key, Spliterator.DISTINCT);
+    }
+
+    @NotNull
+    Spliterator<V> valueSpliterator() {
+        return new IndexSpliterator<>(0, size(), this::value, 0);
+    }
+
+    /**
+     * @param entryFactory creates an entry for a key and a value, neither of which are null
+     * @return a spliterator of entries, created by the factory as they are traversed.
+     */
+    @NotNull
+    <E> Spliterator<E> entrySpliterator(@NotNull BiFunction<K, V, E> entryFactory) {
+        return new IndexSpliterator<>(0, size(), i -> entryFactory.apply(key(i), value(i)), Spliterator.DISTINCT);
+    }
+
+    /*
+    Spliterator over the elements start (inclusive) to end (exclusive) produced by a function of their index.
+    Also used by SortedSetOnceMap.
+     */
+    static class IndexSpliterator<E> implements Spliterator<E> {
+        private final IntFunction<E> element;
+        private final int characteristics;
+        private final int end;
+        private int i;
+
+        IndexSpliterator(int start, int end, IntFunction<E> element, int characteristics) {
+            this.i = start;
+            this.end = end;
+            this.element = element;
+            this.characteristics = CHARACTERISTICS | Spliterator.SIZED | Spliterator.SUBSIZED | characteristics;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            if (i >= end) return false;
+            action.accept(element.apply(i));
+            i++;
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super E> action) {
+            for (; i < end; i++) action.accept(element.apply(i));
+        }
+
+        @Override
+        public Spliterator<E> trySplit() {
+            int mid = (i + end) >>> 1;
+            if (mid <= i) return null;
+            IndexSpliterator<E> prefix = new IndexSpliterator<>(i, mid, element, characteristics);
+            i = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - i;
+        }
+
+        @Override
+        public int characteristics() {
+            return characteristics;
+        }
+    }
+
+    /**
+     * @return an unmodifiable map backed by this table; always the same object.
+     */
+    @NotNull
+    @ImmutableContainer(hc = true)
+    Map<K, V> asMap() {
+        Map<K, V> view = mapView;
+        if (view == null) {
+            view = new MapView();
+            mapView = view;
+        }
+        return view;
+    }
+
+    /**
+     * @return an unmodifiable set of the keys, backed by this table; always the same object.
+     */
+    @NotNull
+    @ImmutableContainer(hc = true)
+    Set<K> asSet() {
+        Set<K> view = keySetView;
+        if (view == null) {
+            view = new KeySetView();
+            keySetView = view;
+        }
+        return view;
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("Frozen");
+    }
+
+    private static class IndexIterator<E> implements Iterator<E> {
+        private final IntFunction<E> element;
+        private final int end;
+        private int i;
+
+        IndexIterator(int end, IntFunction<E> element) {
+            this.end = end;
+            this.element = element;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return i < end;
+        }
+
+        @Override
+        public E next() {
+            if (i >= end) throw new NoSuchElementException();
+            return element.apply(i++);
+        }
+    }
+
+    private class KeySetView extends AbstractSet<K> {
+        @Override
+        public int size() {
+            return FrozenTable.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return indexOf(o) >= 0;
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            return new IndexIterator<>(FrozenTable.this.size(), FrozenTable.this::key);
+        }
+
+        @Override
+        public Spliterator<K> spliterator() {
+            return keySpliterator();
+        }
+
+        @Override
+        public boolean add(K k) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends K> c) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super K> filter) {
+            throw readOnly();
+        }
+
+        @Override
+        public void clear() {
+            throw readOnly();
+        }
+    }
+
+    private class ValuesView extends AbstractCollection<V> {
+        @Override
+        public int size() {
+            return FrozenTable.this.size();
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            return new IndexIterator<>(FrozenTable.this.size(), FrozenTable.this::value);
+        }
+
+        @Override
+        public Spliterator<V> spliterator() {
+            return valueSpliterator();
+        }
+
+        @Override
+        public boolean add(V v) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends V> c) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super V> filter) {
+            throw readOnly();
+        }
+
+        @Override
+        public void clear() {
+            throw readOnly();
+        }
+    }
+
+    private class EntrySetView extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public int size() {
+            return FrozenTable.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            int i = indexOf(e.getKey());
+            return i >= 0 && value(i).equals(e.getValue());
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new IndexIterator<>(FrozenTable.this.size(),
+                    i -> new AbstractMap.SimpleImmutableEntry<>(key(i), value(i)));
+        }
+
+        @Override
+        public Spliterator<Map.Entry<K, V>> spliterator() {
+            return entrySpliterator(AbstractMap.SimpleImmutableEntry::new);
+        }
+
+        @Override
+        public boolean add(Map.Entry<K, V> e) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends Map.Entry<K, V>> c) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super Map.Entry<K, V>> filter) {
+            throw readOnly();
+        }
+
+        @Override
+        public void clear() {
+            throw readOnly();
+        }
+    }
+
+    private class MapView extends AbstractMap<K, V> {
+        private final Set<Map.Entry<K, V>> entrySet = new EntrySetView();
+        private final Collection<V> valuesView = new ValuesView();
+
+        @Override
+        public int size() {
+            return FrozenTable.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return FrozenTable.this.size() == 0;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key) >= 0;
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            if (value == null) return false;
+            for (int i = 0; i < FrozenTable.this.size(); i++) {
+                if (value(i).equals(value)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public V get(Object key) {
+            return FrozenTable.this.get(key);
+        }
+
+        @Override
+        public V getOrDefault(Object key, V defaultValue) {
+            int i = indexOf(key);
+            return i < 0 ? defaultValue : value(i);
+        }
+
+        @Override
+        public Set<K> keySet() {
+            return asSet();
+        }
+
+        @Override
+        public Collection<V> values() {
+            return valuesView;
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return entrySet;
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            for (int i = 0; i < FrozenTable.this.size(); i++) action.accept(key(i), value(i));
+        }
+
+        @Override
+        public V put(K key, V value) {
+            throw readOnly();
+        }
+
+        @Override
+        public V remove(Object key) {
+            throw readOnly();
+        }
+
+        @Override
+        public void putAll(Map<? extends K, ? extends V> m) {
+            throw readOnly();
+        }
+
+        @Override
+        public void clear() {
+            throw readOnly();
+        }
+
+        @Override
+        public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+            throw readOnly();
+        }
+
+        @Override
+        public V putIfAbsent(K key, V value) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean remove(Object key, Object value) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean replace(K key, V oldValue, V newValue) {
+            throw readOnly();
+        }
+
+        @Override
+        public V replace(K key, V value) {
+            throw readOnly();
+        }
+
+        @Override
+        public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+            throw readOnly();
+        }
+
+        @Override
+        public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+            throw readOnly();
+        }
+
+        @Override
+        public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+            throw readOnly();
+        }
+
+        @Override
+        public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+            throw readOnly();
+        }
+    }
+}
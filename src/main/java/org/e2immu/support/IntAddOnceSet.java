@@ -0,0 +1,188 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.*;
+import org.e2immu.annotation.eventual.Mark;
+import org.e2immu.annotation.eventual.Only;
+
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Specialization of {@link AddOnceSet} for <code>int</code> elements, which disallows both removal and attempts
+ * to add an element a second time.
+ * <p>
+ * Elements are stored unboxed, in an open-addressing table of buckets of 8 <code>int</code>s, at most half full.
+ * Zero marks an empty slot; the element zero itself is kept in a separate flag. A lookup scans a whole bucket
+ * with a loop that has no data-dependent branches, so that the JIT can turn it into vector compares, and only
+ * moves on to the next bucket when the current one is full. On <code>freeze()</code>, the table is shrunk to the
+ * smallest size that respects the load factor.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ */
+@ImmutableContainer(after = "frozen")
+public class IntAddOnceSet extends Freezable {
+
+    private static final int BUCKET_SHIFT = 3;
+    private static final int BUCKET_SIZE = 1 << BUCKET_SHIFT;
+
+    @Final(after = "frozen")
+    private int[] table = new int[2 * BUCKET_SIZE];
+
+    @Final(after = "frozen")
+    private boolean containsZero;
+
+    @Final(after = "frozen")
+    private int size;
+
+    /**
+     * Freeze the set, and shrink its table.
+     *
+     * @throws IllegalStateException when the set was already frozen.
+     */
+    @Mark("frozen")
+    @Override
+    public void freeze() {
+        ensureNotFrozen();
+        int capacity = capacityFor(size);
+        if (capacity < table.length) rehash(capacity);
+        super.freeze();
+    }
+
+    private static int capacityFor(int size) {
+        int capacity = BUCKET_SIZE;
+        while (capacity < 2 * size) capacity <<= 1;
+        return capacity;
+    }
+
+    private void rehash(int capacity) {
+        int[] old = table;
+        table = new int[capacity];
+        for (int v : old) {
+            if (v != 0) insert(v);
+        }
+    }
+
+    /*
+    Insert a non-zero element which is not present yet.
+     */
+    private void insert(int v) {
+        int bucketMask = (table.length >>> BUCKET_SHIFT) - 1;
+        int bucket = CompactTable.mix(v) & bucketMask;
+        while (true) {
+            int base = bucket << BUCKET_SHIFT;
+            for (int j = base; j < base + BUCKET_SIZE; j++) {
+                if (table[j] == 0) {
+                    table[j] = v;
+                    return;
+                }
+            }
+            bucket = (bucket + 1) & bucketMask;
+        }
+    }
+
+    /**
+     * Add an element to the set.
+     *
+     * @param v The element to be added.
+     * @throws IllegalStateException when the element had been added before, or when the set was already frozen.
+     */
+    @Only(before = "frozen")
+    @Modified
+    public void add(int v) {
+        ensureNotFrozen();
+        if (contains(v)) throw new IllegalStateException("Already decided on " + v);
+        if (v == 0) {
+            containsZero = true;
+        } else {
+            insert(v);
+        }
+        size++;
+        if (2 * size > table.length) rehash(table.length * 2);
+    }
+
+    /**
+     * Check if the element is present in the set.
+     *
+     * @param v the element
+     * @return <code>true</code> when the element is present in the set.
+     */
+    @NotModified
+    public boolean contains(int v) {
+        if (v == 0) return containsZero;
+        int[] t = table;
+        int bucketMask = (t.length >>> BUCKET_SHIFT) - 1;
+        int bucket = CompactTable.mix(v) & bucketMask;
+        while (true) {
+            int base = bucket << BUCKET_SHIFT;
+            boolean found = false;
+            boolean free = false;
+            for (int j = base; j < base + BUCKET_SIZE; j++) {
+                int e = t[j];
+                found |= e == v;
+                free |= e == 0;
+            }
+            if (found) return true;
+            if (free) return false;
+            bucket = (bucket + 1) & bucketMask;
+        }
+    }
+
+    /**
+     * Return the size of the set.
+     *
+     * @return the size of the set
+     */
+    @NotModified
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check if the set is empty.
+     *
+     * @return <code>true</code> when the set is empty.
+     */
+    @NotModified
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Iterate over all elements of the set, without boxing.
+     *
+     * @param consumer a consumer which will accept every element present in the set.
+     */
+    @NotModified
+    public void forEach(@NotNull IntConsumer consumer) {
+        if (containsZero) consumer.accept(0);
+        for (int v : table) {
+            if (v != 0) consumer.accept(v);
+        }
+    }
+
+    /**
+     * Return a stream of the elements of the set.
+     *
+     * @return A stream of the elements of the set.
+     */
+    @NotModified
+    @NotNull
+    public IntStream stream() {
+        IntStream nonZero = IntStream.of(table).filter(v -> v != 0);
+        return containsZero ? IntStream.concat(IntStream.of(0), nonZero) : nonZero;
+    }
+}
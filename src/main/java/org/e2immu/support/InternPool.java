@@ -0,0 +1,176 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.Container;
+import org.e2immu.annotation.Modified;
+import org.e2immu.annotation.NotModified;
+import org.e2immu.annotation.NotNull;
+import org.e2immu.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+
+/**
+ * Thread-safe hash-consing pool: for every value handed to {@link #intern(Object)}, it returns the one canonical
+ * instance equal to it. This is the concurrent counterpart of the canonicalization offered by {@link AddOnceSet#get},
+ * with the "add if absent" step made atomic.
+ * <p>
+ * The pool is split into stripes, each guarded by its own lock, so that threads interning different values rarely
+ * contend. In weak mode, the pool does not keep its canonical instances alive: once a canonical instance is no longer
+ * referenced elsewhere, it can be garbage collected, and the next equal value to be interned becomes the new
+ * canonical instance.
+ * <p>
+ * Values must not be null, and must be immutable as far as <code>equals</code> and <code>hashCode</code> go.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ *
+ * @param <V> The type of the values.
+ */
+@Container
+public class InternPool<V> {
+
+    private final Map<V, Object>[] stripes;
+    private final int mask;
+    private final boolean weak;
+
+    /**
+     * Construct a pool which keeps its canonical instances alive, with a default number of stripes.
+     */
+    public InternPool() {
+        this(false);
+    }
+
+    /**
+     * Construct a pool with a default number of stripes, 4 per available processor.
+     *
+     * @param weak <code>true</code> when the pool should not prevent canonical instances from being collected.
+     */
+    public InternPool(boolean weak) {
+        this(weak, 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construct a pool.
+     *
+     * @param weak    <code>true</code> when the pool should not prevent canonical instances from being collected.
+     * @param stripes the minimal number of stripes, rounded up to a power of two.
+     * @throws IllegalArgumentException when the number of stripes is not positive.
+     */
+    public InternPool(boolean weak, int stripes) {
+        if (stripes <= 0) throw new IllegalArgumentException("Need at least one stripe");
+        int n = 1;
+        while (n < stripes) n <<= 1;
+        @SuppressWarnings("unchecked")
+        Map<V, Object>[] array = (Map<V, Object>[]) new Map<?, ?>[n];
+        for (int i = 0; i < n; i++) {
+            array[i] = weak ? new WeakHashMap<>() : new HashMap<>();
+        }
+        this.stripes = array;
+        this.mask = n - 1;
+        this.weak = weak;
+    }
+
+    private Map<V, Object> stripe(Object v) {
+        return stripes[CompactTable.mix(v.hashCode()) & mask];
+    }
+
+    /*
+    In weak mode, the value of the map is a weak reference to the key.
+     */
+    @SuppressWarnings("unchecked")
+    private V canonical(Object stored) {
+        return weak ? ((WeakReference<V>) stored).get() : (V) stored;
+    }
+
+    /**
+     * Return the canonical instance equal to the argument. When there is none yet, the argument becomes
+     * the canonical instance. Concurrent calls with equal values all return the same instance.
+     *
+     * @param v the value, not null
+     * @return the canonical instance, equal to <code>v</code>, possibly <code>v</code> itself.
+     * @throws NullPointerException when the argument is null
+     */
+    @NotNull
+    @Modified
+    public V intern(@NotNull V v) {
+        Objects.requireNonNull(v);
+        Map<V, Object> stripe = stripe(v);
+        synchronized (stripe) {
+            Object stored = stripe.get(v);
+            if (stored != null) {
+                V c = canonical(stored);
+                if (c != null) return c;
+            }
+            stripe.put(v, weak ? new WeakReference<>(v) : v);
+            return v;
+        }
+    }
+
+    /**
+     * Return the canonical instance equal to the argument, without adding it to the pool.
+     *
+     * @param v the value, not null
+     * @return the canonical instance, or null when there is none.
+     */
+    @Nullable
+    @NotModified
+    public V getOrDefaultNull(@NotNull V v) {
+        Map<V, Object> stripe = stripe(Objects.requireNonNull(v));
+        synchronized (stripe) {
+            Object stored = stripe.get(v);
+            return stored == null ? null : canonical(stored);
+        }
+    }
+
+    /**
+     * Check if a canonical instance equal to the argument is present.
+     *
+     * @param v the value, not null
+     * @return <code>true</code> when a canonical instance is present.
+     */
+    @NotModified
+    public boolean contains(@NotNull V v) {
+        return getOrDefaultNull(v) != null;
+    }
+
+    /**
+     * Return the number of canonical instances. In weak mode, this number includes instances that have been
+     * collected but not yet purged from the pool.
+     *
+     * @return the number of canonical instances.
+     */
+    @NotModified
+    public int size() {
+        int sum = 0;
+        for (Map<V, Object> stripe : stripes) {
+            synchronized (stripe) {
+                sum += stripe.size();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return <code>true</code> when the pool does not keep its canonical instances alive.
+     */
+    @NotModified
+    public boolean isWeak() {
+        return weak;
+    }
+}
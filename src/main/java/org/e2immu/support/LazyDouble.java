@@ -0,0 +1,75 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.*;
+import org.e2immu.annotation.eventual.Mark;
+import org.e2immu.annotation.eventual.TestMark;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Specialization of {@link Lazy} for a <code>double</code> value, which is stored unboxed.
+ * A separate flag, rather than <code>null</code>, indicates that the value has been evaluated;
+ * reading the value neither allocates nor unboxes.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ */
+@ImmutableContainer(after = "t")
+public class LazyDouble {
+    private final DoubleSupplier supplier;
+
+    @Final(after = "t")
+    private volatile boolean evaluated;
+
+    // written before, and read after, the volatile flag
+    @Final(after = "t")
+    private double t;
+
+    /**
+     * Construct the lazy object by storing a supplier.
+     *
+     * @param supplierParam the supplier that will compute the value
+     * @throws NullPointerException when the argument is <code>null</code>
+     */
+    public LazyDouble(DoubleSupplier supplierParam) {
+        if (supplierParam == null) throw new NullPointerException("Null not allowed");
+        this.supplier = supplierParam;
+    }
+
+    /**
+     * Obtain the value, either by evaluation, if this is the first call, or from the cached field.
+     *
+     * @return the value
+     */
+    @Modified
+    @Mark(value = "t")
+    public double get() {
+        if (evaluated) return t;
+        t = supplier.getAsDouble();
+        evaluated = true;
+        return t;
+    }
+
+    /**
+     * @return true when the lazy object has been evaluated
+     */
+    @NotModified
+    @TestMark("t")
+    public boolean hasBeenEvaluated() {
+        return evaluated;
+    }
+
+}
@@ -0,0 +1,272 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.*;
+import org.e2immu.annotation.eventual.Mark;
+import org.e2immu.annotation.eventual.Only;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.LongFunction;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Specialization of {@link SetOnceMap} for <code>long</code> keys. Each key can be put only once,
+ * removal is not permitted, and once the map is frozen, elements cannot be added anymore.
+ * Values must not be null.
+ * <p>
+ * Keys are stored unboxed, in an open-addressing table which is at most half full; a <code>null</code> value
+ * marks an empty slot. No lookup boxes its key. On <code>freeze()</code>, the table is shrunk to the smallest size
+ * that respects this load factor. Iteration order is the order of the table, not the insertion order.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ *
+ * @param <V> The type for values.
+ */
+@ImmutableContainer(after = "frozen", hc = true)
+public class LongSetOnceMap<V> extends Freezable {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    @Final(after = "frozen")
+    private long[] keys = new long[INITIAL_CAPACITY];
+
+    @Final(after = "frozen")
+    private Object[] values = new Object[INITIAL_CAPACITY];
+
+    @Final(after = "frozen")
+    private int size;
+
+    /**
+     * Freeze the map, and shrink its table.
+     *
+     * @throws IllegalStateException when the map was already frozen.
+     */
+    @Mark("frozen")
+    @Override
+    public void freeze() {
+        ensureNotFrozen();
+        int capacity = capacityFor(size);
+        if (capacity < keys.length) rehash(capacity);
+        super.freeze();
+    }
+
+    private static int capacityFor(int size) {
+        int capacity = 2;
+        while (capacity < 2 * size) capacity <<= 1;
+        return capacity;
+    }
+
+    /*
+    Returns the position of the key, or, when absent, -(position where it can be inserted) - 1.
+     */
+    private int slot(long k) {
+        int mask = keys.length - 1;
+        int pos = CompactTable.mix((int) (k ^ (k >>> 32))) & mask;
+        while (values[pos] != null) {
+            if (keys[pos] == k) return pos;
+            pos = (pos + 1) & mask;
+        }
+        return -pos - 1;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int pos = -slot(oldKeys[i]) - 1;
+                keys[pos] = oldKeys[i];
+                values[pos] = oldValues[i];
+            }
+        }
+    }
+
+    private void insert(int pos, long k, V v) {
+        keys[pos] = k;
+        values[pos] = v;
+        size++;
+        if (2 * size > keys.length) rehash(keys.length * 2);
+    }
+
+    /**
+     * Put a key-value pair in the map. You cannot use the same key twice, not even with the same value.
+     *
+     * @param k the key
+     * @param v the value, must not be null
+     * @throws IllegalStateException when the map is already frozen, or the key is already present
+     * @throws NullPointerException  when the value is null
+     */
+    @Only(before = "frozen")
+    @Modified
+    public void put(long k, @NotNull V v) {
+        Objects.requireNonNull(v);
+        ensureNotFrozen();
+        int pos = slot(k);
+        if (pos >= 0) {
+            throw new IllegalStateException("Already decided on " + k + ": have " + values[pos] + ", want to write " + v);
+        }
+        insert(-pos - 1, k, v);
+    }
+
+    /**
+     * Get the value associated to the key already in the map, or generate one and put it in the map.
+     *
+     * @param k         the key
+     * @param generator the generator to generate a value, given the key, when the key has no value associated yet.
+     *                  The generator must generate a non-null value.
+     * @return either the value already present, or the value generated. This is the value in the map.
+     * @throws IllegalStateException when the map is already frozen
+     * @throws NullPointerException  when the generator generates a null value.
+     */
+    @Only(before = "frozen")
+    @NotNull
+    @Modified
+    @SuppressWarnings("unchecked")
+    public V getOrCreate(long k, @Container(contract = true) @NotNull(content = true) LongFunction<V> generator) {
+        ensureNotFrozen();
+        int pos = slot(k);
+        if (pos >= 0) return (V) values[pos];
+        V v = Objects.requireNonNull(generator.apply(k));
+        // the generator may have modified the map, or even rehashed it: look up the slot again
+        pos = slot(k);
+        if (pos >= 0) {
+            throw new IllegalStateException("Generator put " + k + ": have " + values[pos] + ", want to write " + v);
+        }
+        insert(-pos - 1, k, v);
+        return v;
+    }
+
+    /**
+     * Obtain the value for a given key, but only when the key is already present!
+     *
+     * @param k the key
+     * @return the value, not null.
+     * @throws IllegalStateException when the key is not yet present.
+     */
+    @NotNull
+    @NotModified
+    public V get(long k) {
+        V v = getOrDefaultNull(k);
+        if (v == null) throw new IllegalStateException("Not yet decided on " + k);
+        return v;
+    }
+
+    /**
+     * A more permissive method, which can be called whether the key is present or not.
+     *
+     * @param k the key.
+     * @return null when the key is not present, the value of the key otherwise.
+     */
+    @Nullable
+    @NotModified
+    @SuppressWarnings("unchecked")
+    public V getOrDefaultNull(long k) {
+        int pos = slot(k);
+        return pos >= 0 ? (V) values[pos] : null;
+    }
+
+    /**
+     * A more permissive method, which can be called whether the key is present or not.
+     *
+     * @param k the key.
+     * @param v the value returned when the key is not present. Cannot be null.
+     * @return the second parameter when the key is not present, the value of the key otherwise.
+     */
+    @NotModified
+    @NotNull
+    public V getOrDefault(long k, @NotNull V v) {
+        Objects.requireNonNull(v);
+        V value = getOrDefaultNull(k);
+        return value == null ? v : value;
+    }
+
+    /**
+     * Check if the key has been set.
+     *
+     * @param k the key
+     * @return <code>true</code> when a value has been put for this key.
+     */
+    @NotModified
+    public boolean isSet(long k) {
+        return slot(k) >= 0;
+    }
+
+    /**
+     * Return the size of the map
+     *
+     * @return the size of the map.
+     */
+    @NotModified
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check if the map is empty.
+     *
+     * @return <code>true</code> when the map is empty.
+     */
+    @NotModified
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Iterate over all key-value pairs, without boxing the keys.
+     *
+     * @param consumer receives the value and the key of each pair
+     */
+    @NotModified
+    @SuppressWarnings("unchecked")
+    public void forEach(@NotNull @Independent(hc = true) ObjLongConsumer<V> consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            Object v = values[i];
+            if (v != null) consumer.accept((V) v, keys[i]);
+        }
+    }
+
+    /**
+     * Return a stream of map keys.
+     *
+     * @return a stream of map keys.
+     */
+    @NotNull
+    @NotModified
+    public LongStream keyStream() {
+        long[] k = keys;
+        Object[] v = values;
+        return IntStream.range(0, k.length).filter(i -> v[i] != null).mapToLong(i -> k[i]);
+    }
+
+    /**
+     * Return a stream of map values.
+     *
+     * @return a stream of map values.
+     */
+    @NotNull(content = true)
+    @NotModified
+    @Independent(hc = true)
+    @SuppressWarnings("unchecked")
+    public Stream<V> valueStream() {
+        return Arrays.stream((V[]) values).filter(Objects::nonNull);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.NotNull;
+import org.e2immu.annotation.type.UtilityClass;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Write a frozen <code>SetOnceMap&lt;String, String&gt;</code> to a binary file, and reopen it as a frozen,
+ * read-only <code>SetOnceMap</code> whose lookups are served from a memory mapping of that file.
+ * Opening costs a mapping and a few page faults, rather than a rebuild; several processes that open the same file
+ * share its pages in the operating system's page cache.
+ * <p>
+ * Lookups do not allocate beyond encoding the key; iteration decodes the strings it returns.
+ * The file must not be modified while it is mapped, and cannot be larger than 2 GB, index included.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ */
+@UtilityClass
+public class MappedSnapshot {
+
+    private MappedSnapshot() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Write a frozen map to a file, which will be replaced if it exists. The content is written to a temporary file
+     * in the same directory, which then atomically replaces the file: processes which have mapped the previous
+     * version keep reading it, and a snapshot is never seen half written.
+     *
+     * @param map  the map, frozen
+     * @param path the file
+     * @throws IllegalStateException when the map has not been frozen yet
+     * @throws IOException           when the file cannot be written, or would exceed 2 GB
+     */
+    public static void write(@NotNull SetOnceMap<String, String> map, @NotNull Path path) throws IOException {
+        map.ensureFrozen();
+        int n = map.size();
+        byte[][] data = new byte[2 * n][];
+        int[] offsets = new int[2 * n + 1];
+        int[] hashes = new int[n];
+        int capacity = 2;
+        while (capacity < 2 * n) capacity <<= 1;
+        // the whole file, header and index included, must be addressable with an int
+        long total = 4L * (MappedTable.HEADER_INTS + capacity + offsets.length);
+        int i = 0;
+        for (Cursor<String, String> c = map.cursor(); c.next(); i++) {
+            hashes[i] = CompactTable.hash(c.key());
+            data[2 * i] = c.key().getBytes(StandardCharsets.UTF_8);
+            data[2 * i + 1] = c.value().getBytes(StandardCharsets.UTF_8);
+            for (int j = 2 * i; j <= 2 * i + 1; j++) {
+                total += data[j].length;
+                if (total > Integer.MAX_VALUE) throw new IOException("Snapshot too large");
+                offsets[j + 1] = offsets[j] + data[j].length;
+            }
+        }
+        int[] slots = new int[capacity];
+        for (int k = 0; k < n; k++) {
+            int pos = hashes[k] & (capacity - 1);
+            while (slots[pos] != 0) pos = (pos + 1) & (capacity - 1);
+            slots[pos] = k + 1;
+        }
+        // never rewrite the file in place: other processes may have it mapped
+        Path directory = path.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MappedTable.MAGIC);
+                out.writeInt(n);
+                out.writeInt(capacity);
+                for (int slot : slots) out.writeInt(slot);
+                for (int offset : offsets) out.writeInt(offset);
+                for (byte[] bytes : data) out.write(bytes);
+            }
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Map a file written by {@link #write} into memory, and present it as a frozen map.
+     *
+     * @param path the file
+     * @return a frozen map, backed by the file
+     * @throws IOException when the file cannot be read, or is not a valid snapshot
+     */
+    @NotNull
+    public static SetOnceMap<String, String> open(@NotNull Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Snapshot too large");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return new SetOnceMap<>(new MappedTable(buffer));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.ImmutableContainer;
+import org.e2immu.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link FrozenTable} of strings served directly from a read-only buffer, typically a memory-mapped file written by
+ * {@link MappedSnapshot#write}. Only the index is probed on lookup; strings are decoded when entries are accessed
+ * by number, e.g., during iteration.
+ * <p>
+ * Layout, all integers big-endian: the magic number, the number of entries <code>n</code>, the number of slots
+ * <code>m</code>, then <code>m</code> slots (position + 1 of the entry, 0 when empty, linear probing on the
+ * hash of {@link CompactTable#hash}), then <code>2n + 1</code> offsets into the data, and finally the data:
+ * the UTF-8 encoded key and value of each entry, one after the other.
+ * <p>
+ * The header is validated when the table is created; slots and offsets are checked when they are used, and
+ * an inconsistent one causes an <code>IllegalStateException</code>.
+ */
+@ImmutableContainer
+final class MappedTable extends FrozenTable<String, String> {
+
+    static final int MAGIC = 0x534F4D31; // "SOM1"
+    static final int HEADER_INTS = 3;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int mask;
+    private final int offsetsStart;
+    private final int dataStart;
+
+    MappedTable(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < 4 * HEADER_INTS || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a SetOnceMap snapshot");
+        }
+        size = buffer.getInt(4);
+        int slots = buffer.getInt(8);
+        // at least twice as many slots as entries, as written, so that probing always ends on an empty slot
+        if (size < 0 || slots < 2 || (slots & (slots - 1)) != 0 || slots < 2L * size) {
+            throw new IOException("Corrupt snapshot header: " + size + " entries, " + slots + " slots");
+        }
+        mask = slots - 1;
+        // computed in long, so that a corrupt header cannot make them overflow
+        long offsets = 4L * (HEADER_INTS + slots);
+        long data = offsets + 4L * (2L * size + 1);
+        if (data > buffer.capacity()) throw new IOException("Corrupt snapshot: unexpected length");
+        offsetsStart = (int) offsets;
+        dataStart = (int) data;
+        if (offset(0) != 0 || dataStart + (long) offset(2 * size) != buffer.capacity()) {
+            throw new IOException("Corrupt snapshot: unexpected length");
+        }
+    }
+
+    private int offset(int i) {
+        return buffer.getInt(offsetsStart + 4 * i);
+    }
+
+    /*
+    The offsets between the first and the last one are only checked when they are used.
+     */
+    private int checkedStart(int i) {
+        int start = offset(i);
+        int end = offset(i + 1);
+        if (start < 0 || end < start || dataStart + (long) end > buffer.capacity()) {
+            throw new IllegalStateException("Corrupt snapshot: offsets of entry " + i / 2);
+        }
+        return start;
+    }
+
+    private String decode(int i) {
+        int start = checkedStart(i);
+        byte[] bytes = new byte[offset(i + 1) - start];
+        ByteBuffer b = buffer.duplicate();
+        b.position(dataStart + start);
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    String key(int i) {
+        return decode(2 * i);
+    }
+
+    @Override
+    String value(int i) {
+        return decode(2 * i + 1);
+    }
+
+    @Override
+    int indexOf(@Nullable Object key) {
+        if (!(key instanceof String)) return -1;
+        byte[] bytes = ((String) key).getBytes(StandardCharsets.UTF_8);
+        int pos = CompactTable.hash(key) & mask;
+        int slot;
+        for (int probes = 0; (slot = buffer.getInt(4 * (HEADER_INTS + pos))) != 0; probes++) {
+            if (slot < 0 || slot > size || probes > mask) {
+                throw new IllegalStateException("Corrupt snapshot: slot " + pos);
+            }
+            if (keyEquals(slot - 1, bytes)) return slot - 1;
+            pos = (pos + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean keyEquals(int i, byte[] bytes) {
+        int start = checkedStart(2 * i);
+        if (offset(2 * i + 1) - start != bytes.length) return false;
+        int base = dataStart + start;
+        for (int j = 0; j < bytes.length; j++) {
+            if (buffer.get(base + j) != bytes[j]) return false;
+        }
+        return true;
+    }
+}
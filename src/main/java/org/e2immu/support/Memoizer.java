@@ -0,0 +1,361 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.*;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * A bounded memo table: like {@link SetOnceMap#getOrCreate(Object, Function)}, the function is called at most once
+ * per key while the key is present, but entries are evicted when their total weight exceeds a bound.
+ * An evicted key is computed again when it is asked for again.
+ * <p>
+ * Concurrent callers asking for the same absent key wait for a single computation, which runs outside any lock.
+ * When the function throws an exception, the key remains absent, and all waiting callers receive the exception.
+ * The function must not ask the memoizer for the key it is computing.
+ * <p>
+ * Eviction follows a segmented LRU policy. New entries enter a probation segment; an entry which is hit again
+ * moves to a protected segment, which takes up to 80% of the bound. Entries leave the protected segment to the back
+ * of the probation segment, and are evicted from the front of the probation segment. One-off keys therefore cannot
+ * push out entries which are used repeatedly. Reads reorder the segments only when the lock is free;
+ * under contention, some accesses are not recorded, which makes the policy approximate but keeps hits cheap.
+ * <p>
+ * Pinned entries are never evicted, and do not count toward the bound.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ *
+ * @param <K> The type for keys.
+ * @param <V> The type for values.
+ */
+@Container
+public class Memoizer<K, V> {
+
+    private static final byte NONE = 0; // not in a segment yet
+    private static final byte PROBATION = 1;
+    private static final byte PROTECTED = 2;
+    private static final byte PINNED = 3;
+    private static final byte EVICTED = 4;
+
+    private static final class Node<K, V> {
+        final K key;
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        // the computing thread, until the computation finishes; only that thread compares it to itself
+        Thread owner;
+        volatile V value;
+
+        // guarded by lock
+        int weight;
+        byte queue;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, Thread owner) {
+            this.key = key;
+            this.owner = owner;
+        }
+    }
+
+    // a doubly linked list of nodes, from least to most recently used
+    private static final class Segment<K, V> {
+        Node<K, V> head;
+        Node<K, V> tail;
+        long weight;
+
+        void addLast(Node<K, V> node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) head = node;
+            else tail.next = node;
+            tail = node;
+            weight += node.weight;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.prev == null) head = node.next;
+            else node.prev.next = node.next;
+            if (node.next == null) tail = node.prev;
+            else node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            weight -= node.weight;
+        }
+    }
+
+    private final Function<? super K, ? extends V> function;
+    private final ToIntBiFunction<? super K, ? super V> weigher;
+    private final long maximumWeight;
+    private final long protectedMaximumWeight;
+
+    private final ConcurrentHashMap<K, Node<K, V>> map = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Segment<K, V> probation = new Segment<>();
+    private final Segment<K, V> protectedSegment = new Segment<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a memoizer which holds at most <code>maximumSize</code> unpinned entries.
+     *
+     * @param function    the function to memoize; it must not return null
+     * @param maximumSize the maximal number of unpinned entries
+     * @throws IllegalArgumentException when the size is not positive
+     */
+    public Memoizer(@NotNull Function<? super K, ? extends V> function, int maximumSize) {
+        this(function, maximumSize, (k, v) -> 1);
+    }
+
+    /**
+     * Create a memoizer which holds unpinned entries up to a total weight.
+     *
+     * @param function      the function to memoize; it must not return null
+     * @param maximumWeight the maximal total weight of the unpinned entries
+     * @param weigher       computes the weight of an entry, once, when it is added; must not be negative
+     * @throws IllegalArgumentException when the maximal weight is not positive
+     */
+    public Memoizer(@NotNull Function<? super K, ? extends V> function,
+                    long maximumWeight,
+                    @NotNull ToIntBiFunction<? super K, ? super V> weigher) {
+        if (maximumWeight <= 0) throw new IllegalArgumentException("Maximal weight must be positive");
+        this.function = Objects.requireNonNull(function);
+        this.weigher = Objects.requireNonNull(weigher);
+        this.maximumWeight = maximumWeight;
+        this.protectedMaximumWeight = maximumWeight * 4 / 5;
+    }
+
+    /**
+     * Obtain the value for the key, computing it when it is absent.
+     *
+     * @param k the key, not null
+     * @return the value, not null
+     * @throws NullPointerException  when the key is null, or the function returns null
+     * @throws IllegalStateException when the function recursively asks for the key it is computing
+     */
+    @NotNull
+    @Modified
+    public V apply(@NotNull K k) {
+        Node<K, V> node = map.get(Objects.requireNonNull(k));
+        if (node == null) {
+            Node<K, V> created = new Node<>(k, Thread.currentThread());
+            node = map.putIfAbsent(k, created);
+            if (node == null) return compute(created);
+        }
+        hits.increment();
+        V v = node.value;
+        if (v != null) {
+            recordAccess(node);
+            return v;
+        }
+        return join(node);
+    }
+
+    private V compute(Node<K, V> node) {
+        misses.increment();
+        V v;
+        int weight;
+        try {
+            v = Objects.requireNonNull(function.apply(node.key));
+            weight = weigher.applyAsInt(node.key, v);
+            if (weight < 0) throw new IllegalArgumentException("Negative weight for " + node.key);
+        } catch (RuntimeException | Error e) {
+            node.owner = null;
+            map.remove(node.key, node);
+            node.future.completeExceptionally(e);
+            throw e;
+        }
+        node.owner = null;
+        lock.lock();
+        try {
+            node.weight = weight;
+            node.value = v;
+            node.queue = PROBATION;
+            probation.addLast(node);
+            evict();
+        } finally {
+            lock.unlock();
+        }
+        node.future.complete(v);
+        return v;
+    }
+
+    private V join(Node<K, V> node) {
+        if (node.owner == Thread.currentThread()) {
+            throw new IllegalStateException("Recursive computation of " + node.key);
+        }
+        try {
+            return node.future.join();
+        } catch (CompletionException ce) {
+            Throwable cause = ce.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw ce;
+        }
+    }
+
+    private void recordAccess(Node<K, V> node) {
+        if (!lock.tryLock()) return;
+        try {
+            if (node.queue == PROBATION) {
+                probation.remove(node);
+                node.queue = PROTECTED;
+                protectedSegment.addLast(node);
+                while (protectedSegment.weight > protectedMaximumWeight && protectedSegment.head != node) {
+                    Node<K, V> demoted = protectedSegment.head;
+                    protectedSegment.remove(demoted);
+                    demoted.queue = PROBATION;
+                    probation.addLast(demoted);
+                }
+            } else if (node.queue == PROTECTED) {
+                protectedSegment.remove(node);
+                protectedSegment.addLast(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // lock must be held
+    private void evict() {
+        while (probation.weight + protectedSegment.weight > maximumWeight) {
+            Segment<K, V> segment = probation.head != null ? probation : protectedSegment;
+            Node<K, V> victim = segment.head;
+            segment.remove(victim);
+            victim.queue = EVICTED;
+            map.remove(victim.key, victim);
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Obtain the value for the key, computing it when it is absent, and make sure it is never evicted.
+     *
+     * @param k the key, not null
+     * @return the value, not null
+     * @throws NullPointerException when the key is null, or the function returns null
+     */
+    @NotNull
+    @Modified
+    public V pin(@NotNull K k) {
+        while (true) {
+            V v = apply(k);
+            lock.lock();
+            try {
+                Node<K, V> node = map.get(k);
+                if (node == null) {
+                    // evicted in the meantime; put the value we have back, pinned
+                    node = new Node<>(k, null);
+                    node.value = v;
+                    node.queue = PINNED;
+                    node.future.complete(v);
+                    if (map.putIfAbsent(k, node) == null) return v;
+                } else if (node.value != null) {
+                    if (node.queue == PROBATION) probation.remove(node);
+                    else if (node.queue == PROTECTED) protectedSegment.remove(node);
+                    node.queue = PINNED;
+                    return node.value;
+                }
+                // another thread is computing the key again; try again
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Make a pinned entry subject to eviction again. Nothing happens when the key is absent or not pinned.
+     *
+     * @param k the key
+     */
+    @Modified
+    public void unpin(@NotNull K k) {
+        lock.lock();
+        try {
+            Node<K, V> node = map.get(k);
+            if (node != null && node.queue == PINNED) {
+                node.weight = weigher.applyAsInt(node.key, node.value);
+                node.queue = PROBATION;
+                probation.addLast(node);
+                evict();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param k the key
+     * @return true when the key is present and pinned
+     */
+    @NotModified
+    public boolean isPinned(@NotNull K k) {
+        Node<K, V> node = map.get(k);
+        if (node == null) return false;
+        lock.lock();
+        try {
+            return node.queue == PINNED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param k the key
+     * @return true when a value is present for the key, without recording an access
+     */
+    @NotModified
+    public boolean isPresent(@NotNull K k) {
+        Node<K, V> node = map.get(k);
+        return node != null && node.value != null;
+    }
+
+    /**
+     * @return the number of entries, pinned or not, including those being computed
+     */
+    @NotModified
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * @return the total weight of the unpinned entries
+     */
+    @NotModified
+    public long weight() {
+        lock.lock();
+        try {
+            return probation.weight + protectedSegment.weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return a snapshot of the hit, miss and eviction counters
+     */
+    @NotNull
+    @NotModified
+    public MemoizerStatistics statistics() {
+        return new MemoizerStatistics(hits.sum(), misses.sum(), evictions.sum());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.ImmutableContainer;
+
+/**
+ * Snapshot of the counters of a {@link Memoizer}.
+ * Use it to size the memoizer: a low hit rate combined with many evictions means the bound is too small
+ * for the working set.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ */
+@ImmutableContainer
+public final class MemoizerStatistics {
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+
+    MemoizerStatistics(long hits, long misses, long evictions) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    /**
+     * @return the number of calls answered with a value computed earlier, or being computed by another thread
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of calls which computed their value
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of entries removed to respect the bound
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the fraction of calls which were hits, or 0 when there were no calls
+     */
+    public double getHitRate() {
+        long calls = hits + misses;
+        return calls == 0 ? 0 : (double) hits / calls;
+    }
+
+    @Override
+    public String toString() {
+        return "MemoizerStatistics{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + '}';
+    }
+}
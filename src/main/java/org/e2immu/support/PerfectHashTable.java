@@ -0,0 +1,258 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.ImmutableContainer;
+import org.e2immu.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+/**
+ * {@link FrozenTable} indexed by a minimal perfect hash function, built with the CHD algorithm
+ * ("compress, hash and displace"). Keys are first hashed into buckets of about {@link #KEYS_PER_BUCKET} keys.
+ * Starting with the largest bucket, a displacement is searched for every bucket, so that its keys end up in
+ * distinct slots that are still free. There are exactly as many slots as keys.
+ * <p>
+ * A lookup computes the slot of the key from the displacement of its bucket, reads the position of the entry from
+ * that slot, and compares one key: there is no probing, and no lookup costs more than a single <code>equals</code>.
+ * Keys and values are kept in insertion order; each slot holds the position of its entry in
+ * <code>ceil(log2(n))</code> bits, and an 8-bit fingerprint of the hash code of the key, so that most misses are
+ * rejected without reading a key. With the displacements, the index costs about <code>log2(n) + 16</code> bits
+ * per key, compared to 64 to 128 bits for {@link CompactTable}.
+ * <p>
+ * Construction fails, and the caller falls back to another table, when two keys have the same hash code,
+ * because no displacement can separate them.
+ *
+ * @param <K> The type for keys.
+ * @param <V> The type for values.
+ */
+@ImmutableContainer(hc = true)
+final class PerfectHashTable<K, V> extends FrozenTable<K, V> {
+
+    static final int KEYS_PER_BUCKET = 4;
+    private static final int FINGERPRINT_BITS = 8;
+    private static final int FINGERPRINT_MASK = (1 << FINGERPRINT_BITS) - 1;
+    private static final int BUCKET_SEED = 0x7F4A7C15;
+    private static final int MAX_DISPLACEMENT = 1 << 24;
+
+    private final Object[] keys;
+    private final Object[] values;
+    private final int[] displacements;
+    // per slot, the position of the entry followed by the fingerprint, packed in width bits
+    private final long[] slotBits;
+    private final int width;
+
+    private PerfectHashTable(Object[] keys, Object[] values, int[] displacements, long[] slotBits, int width) {
+        this.keys = keys;
+        this.values = values;
+        this.displacements = displacements;
+        this.slotBits = slotBits;
+        this.width = width;
+    }
+
+    /**
+     * Build a table over arrays of keys and values, of which it takes ownership.
+     *
+     * @param keys   the keys, in iteration order, without nulls or duplicates
+     * @param values the values; may be the key array to represent a set
+     * @return the table, or null when no perfect hash function could be found
+     */
+    @Nullable
+    static <K, V> PerfectHashTable<K, V> of(Object[] keys, Object[] values) {
+        try {
+            return build(keys, values);
+        } catch (Unsolvable e) {
+            return null;
+        }
+    }
+
+    private static <K, V> PerfectHashTable<K, V> build(Object[] keys, Object[] values) {
+        int n = keys.length;
+        if (n == 0) return null;
+        int[] hashes = new int[n];
+        for (int i = 0; i < n; i++) hashes[i] = keys[i].hashCode();
+        int buckets = (n + KEYS_PER_BUCKET - 1) / KEYS_PER_BUCKET;
+
+        // sort the keys by bucket, and the buckets by decreasing size, as (size, bucket) in a long
+        int[] bucketOf = new int[n];
+        int[] bucketSize = new int[buckets];
+        for (int i = 0; i < n; i++) {
+            bucketOf[i] = bucket(seeded(hashes[i]), buckets);
+            bucketSize[bucketOf[i]]++;
+        }
+        int[] bucketStart = new int[buckets + 1];
+        for (int b = 0; b < buckets; b++) bucketStart[b + 1] = bucketStart[b] + bucketSize[b];
+        int[] members = new int[n];
+        int[] fill = Arrays.copyOf(bucketStart, buckets);
+        for (int i = 0; i < n; i++) members[fill[bucketOf[i]]++] = i;
+        long[] order = new long[buckets];
+        for (int b = 0; b < buckets; b++) order[b] = ((long) (n - bucketSize[b]) << 32) | b;
+        Arrays.sort(order);
+
+        int width = Math.max(1, 32 - Integer.numberOfLeadingZeros(n - 1)) + FINGERPRINT_BITS;
+        long[] slotBits = new long[(int) (((long) n * width + 63) >>> 6) + 1];
+        int[] displacements = new int[buckets];
+        boolean[] taken = new boolean[n];
+        int[] slots = new int[KEYS_PER_BUCKET * 8];
+        for (long o : order) {
+            int b = (int) o;
+            int start = bucketStart[b];
+            int size = bucketStart[b + 1] - start;
+            if (size == 0) break;
+            if (slots.length < size) slots = new int[size];
+            int d = 0;
+            while (!tryDisplacement(hashes, members, start, size, d, taken, slots)) {
+                if (++d == MAX_DISPLACEMENT) return null;
+            }
+            displacements[b] = d;
+            for (int j = 0; j < size; j++) {
+                taken[slots[j]] = true;
+                int i = members[start + j];
+                long entry = ((long) i << FINGERPRINT_BITS) | fingerprint(seeded(hashes[i]));
+                write(slotBits, width, slots[j], entry);
+            }
+        }
+        return new PerfectHashTable<>(keys, values, displacements, slotBits, width);
+    }
+
+    private static boolean tryDisplacement(int[] hashes, int[] members, int start, int size, int d,
+                                           boolean[] taken, int[] slots) {
+        int n = taken.length;
+        for (int j = 0; j < size; j++) {
+            int h = hashes[members[start + j]];
+            int s = slot(h, d, n);
+            if (taken[s]) return false;
+            for (int k = 0; k < j; k++) {
+                if (slots[k] == s) {
+                    // equal hash codes collide for every displacement
+                    if (hashes[members[start + k]] == h) throw Unsolvable.INSTANCE;
+                    return false;
+                }
+            }
+            slots[j] = s;
+        }
+        return true;
+    }
+
+    // thrown within construction only, and always caught there: a single instance, without stack trace
+    private static final class Unsolvable extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        static final Unsolvable INSTANCE = new Unsolvable();
+
+        private Unsolvable() {
+            super(null, null, false, false);
+        }
+    }
+
+    /*
+    Bucket sizes must vary randomly, so that the last buckets to be placed hold a single key: a multiplicative hash
+    spreads regular keys, such as consecutive integers, too evenly.
+     */
+    private static int seeded(int hashCode) {
+        return avalanche(hashCode ^ BUCKET_SEED);
+    }
+
+    private static int bucket(int seeded, int buckets) {
+        return reduce(seeded, buckets);
+    }
+
+    // the bucket depends mostly on the high bits
+    private static int fingerprint(int seeded) {
+        return seeded & FINGERPRINT_MASK;
+    }
+
+    private static int slot(int hashCode, int displacement, int n) {
+        return reduce(avalanche(hashCode + displacement * 0x61C88647), n);
+    }
+
+    // the finalizer of MurmurHash3
+    private static int avalanche(int x) {
+        x ^= x >>> 16;
+        x *= 0x85EBCA6B;
+        x ^= x >>> 13;
+        x *= 0xC2B2AE35;
+        return x ^ (x >>> 16);
+    }
+
+    // map a uniformly distributed int onto [0, n) without division
+    private static int reduce(int x, int n) {
+        return (int) (((x & 0xFFFFFFFFL) * n) >>> 32);
+    }
+
+    private static void write(long[] slotBits, int width, int slot, long value) {
+        long bit = (long) slot * width;
+        int word = (int) (bit >>> 6);
+        int offset = (int) (bit & 63);
+        slotBits[word] |= value << offset;
+        if (offset + width > 64) slotBits[word + 1] |= value >>> (64 - offset);
+    }
+
+    private long read(int slot) {
+        long bit = (long) slot * width;
+        int word = (int) (bit >>> 6);
+        int offset = (int) (bit & 63);
+        long v = slotBits[word] >>> offset;
+        if (offset + width > 64) v |= slotBits[word + 1] << (64 - offset);
+        return v & ((1L << width) - 1);
+    }
+
+    /*
+    number of bits used by the index, for tests
+     */
+    long indexBits() {
+        return 32L * displacements.length + 64L * slotBits.length;
+    }
+
+    @Override
+    int indexOf(@Nullable Object key) {
+        if (key == null) return -1;
+        int h = key.hashCode();
+        int seeded = seeded(h);
+        long entry = read(slot(h, displacements[bucket(seeded, displacements.length)], keys.length));
+        if ((entry & FINGERPRINT_MASK) != fingerprint(seeded)) return -1;
+        int i = (int) (entry >>> FINGERPRINT_BITS);
+        Object k = keys[i];
+        return k == key || k.equals(key) ? i : -1;
+    }
+
+    @Override
+    int size() {
+        return keys.length;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    K key(int i) {
+        return (K) keys[i];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    V value(int i) {
+        return (V) values[i];
+    }
+
+    @Override
+    Spliterator<K> keySpliterator() {
+        return Spliterators.spliterator(keys, CHARACTERISTICS | Spliterator.DISTINCT);
+    }
+
+    @Override
+    Spliterator<V> valueSpliterator() {
+        return Spliterators.spliterator(values, CHARACTERISTICS);
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.*;
+import org.e2immu.annotation.eventual.Mark;
+import org.e2immu.annotation.eventual.Only;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Variant of {@link SetOnceMap} backed by a hash array mapped trie (HAMT), so that a frozen map can be
+ * extended cheaply: <code>fork()</code> returns a new, mutable map which shares all of its content with
+ * the frozen one. Puts in the fork copy only the nodes on the path from the root to the new key,
+ * at most 7 small arrays; a derived map costs memory in proportion to its new keys, and lookups always descend a
+ * single trie, however many generations of forks lie behind it.
+ * <p>
+ * While a map is being built, the nodes it has created itself are updated in place; nodes it shares with the map
+ * it was forked from are copied on first write. Freezing makes all nodes immutable.
+ * Iteration follows the order of the hash codes, not insertion order.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ *
+ * @param <K> The type for keys.
+ * @param <V> The type for values.
+ */
+@ImmutableContainer(after = "frozen", hc = true)
+public class PersistentSetOnceMap<K, V> extends Freezable {
+
+    private static final int BITS = 5;
+    private static final int MAX_DEPTH = 8; // 7 levels of bitmap nodes, and a collision node
+
+    // nodes created while this token is current can be modified in place; null after freezing
+    @Final(after = "frozen")
+    private Object edit;
+    @Final(after = "frozen")
+    private Node root;
+    @Final(after = "frozen")
+    private int size;
+
+    // receives the value already present for a key, during a put
+    private final Object[] found = new Object[1];
+
+    /**
+     * Create an empty map.
+     */
+    public PersistentSetOnceMap() {
+        this(BitmapNode.EMPTY, 0);
+    }
+
+    private PersistentSetOnceMap(Node root, int size) {
+        this.edit = new Object();
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Freeze the map. Its nodes become immutable, and can be shared by forks.
+     *
+     * @throws IllegalStateException when the map was already frozen.
+     */
+    @Mark("frozen")
+    @Override
+    public void freeze() {
+        ensureNotFrozen();
+        edit = null;
+        super.freeze();
+    }
+
+    /**
+     * Create a new, mutable map with the same content as this frozen map. No content is copied.
+     *
+     * @return a new map, not frozen
+     * @throws IllegalStateException when this map is not frozen yet.
+     */
+    @Only(after = "frozen")
+    @NotNull
+    @NotModified
+    @Independent(hc = true)
+    public PersistentSetOnceMap<K, V> fork() {
+        ensureFrozen();
+        return new PersistentSetOnceMap<>(root, size);
+    }
+
+    /**
+     * Put an key-value pair in the map. You cannot use the same key twice, not even with the same value,
+     * nor a key which was present in the map this one was forked from.
+     * Null keys or values are not permitted.
+     *
+     * @param k the key, must not be null
+     * @param v the value, must not be null
+     * @throws IllegalStateException when the map is already frozen, or the key is already present
+     * @throws NullPointerException  when a parameter is null
+     */
+    @Only(before = "frozen")
+    @Modified
+    public void put(@NotNull K k, @NotNull V v) {
+        Objects.requireNonNull(k);
+        Objects.requireNonNull(v);
+        ensureNotFrozen();
+        root = root.put(edit, 0, hash(k), k, v, found);
+        Object prev = found[0];
+        if (prev != null) {
+            found[0] = null;
+            throw new IllegalStateException("Already decided on " + k + ": have " + prev + ", want to write " + v);
+        }
+        size++;
+    }
+
+    private static int hash(Object key) {
+        return CompactTable.mix(key.hashCode());
+    }
+
+    /**
+     * Obtain the value for a given key, but only when the key is already present!
+     *
+     * @param k the key, not null
+     * @return the value, not null.
+     * @throws IllegalStateException when the key is not yet present.
+     */
+    @NotNull
+    @NotModified
+    public V get(@NotNull K k) {
+        V v = getOrDefaultNull(k);
+        if (v == null) throw new IllegalStateException("Not yet decided on " + k);
+        return v;
+    }
+
+    /**
+     * A more permissive method, which can be called whether the key is present or not.
+     *
+     * @param k the key.
+     * @return null when the key is not present, the value of the key otherwise.
+     */
+    @Nullable
+    @NotModified
+    @SuppressWarnings("unchecked")
+    public V getOrDefaultNull(@NotNull K k) {
+        return (V) root.get(0, hash(Objects.requireNonNull(k)), k);
+    }
+
+    /**
+     * Check if the key has been set.
+     *
+     * @param k the key
+     * @return <code>true</code> when a value has been put for this key.
+     */
+    @NotModified
+    public boolean isSet(@NotNull K k) {
+        return getOrDefaultNull(k) != null;
+    }
+
+    /**
+     * Return the size of the map
+     *
+     * @return the size of the map.
+     */
+    @NotModified
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check if the map is empty.
+     *
+     * @return <code>true</code> when the map is empty.
+     */
+    @NotModified
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Iterate over all key-value pairs. No objects are allocated per pair.
+     *
+     * @param consumer receives the key and the value of each pair; no nulls will be presented.
+     * @throws NullPointerException when the consumer is null
+     */
+    @NotModified
+    public void forEach(@NotNull(content = true) @Independent(hc = true) BiConsumer<K, V> consumer) {
+        Objects.requireNonNull(consumer);
+        for (Cursor<K, V> c = cursor(); c.next(); ) consumer.accept(c.key(), c.value());
+    }
+
+    /**
+     * Iterate over all key-value pairs with a single cursor object, which is positioned on each pair in turn.
+     * The map must not be modified while the cursor is in use.
+     *
+     * @return a cursor, positioned before the first pair.
+     */
+    @NotNull
+    @NotModified
+    @Independent(hc = true)
+    public Cursor<K, V> cursor() {
+        return new TrieCursor<>(root);
+    }
+
+    /**
+     * Return a stream of map keys.
+     *
+     * @return a stream of map keys.
+     */
+    @NotNull(content = true)
+    @NotModified
+    @Independent(hc = true)
+    public Stream<K> keyStream() {
+        Cursor<K, V> c = cursor();
+        return StreamSupport.stream(new Spliterators.AbstractSpliterator<K>(size, FrozenTable.CHARACTERISTICS
+                | Spliterator.SIZED | Spliterator.DISTINCT) {
+            @Override
+            public boolean tryAdvance(Consumer<? super K> action) {
+                if (!c.next()) return false;
+                action.accept(c.key());
+                return true;
+            }
+        }, false);
+    }
+
+    /**
+     * Return a level 2 immutable copy of the map.
+     * <p>
+     * Only present in Java 10+.
+     *
+     * @return a level 2 immutable copy
+     */
+    @NotNull
+    @NotModified
+    @ImmutableContainer
+    public Map<K, V> toImmutableMap() {
+        // built once, from the entries, rather than copied from an intermediate map
+        @SuppressWarnings("unchecked")
+        Map.Entry<K, V>[] entries = (Map.Entry<K, V>[]) new Map.Entry<?, ?>[size];
+        int i = 0;
+        for (Cursor<K, V> c = cursor(); c.next(); ) {
+            entries[i++] = Map.entry(c.key(), c.value());
+        }
+        return Map.ofEntries(entries);
+    }
+
+    /*
+    Nodes hold pairs in an array: a key followed by its value, or null followed by a sub-node.
+     */
+    private abstract static class Node {
+        final Object edit;
+        Object[] array;
+
+        Node(Object edit, Object[] array) {
+            this.edit = edit;
+            this.array = array;
+        }
+
+        abstract Object get(int shift, int hash, Object key);
+
+        // returns the new node, or this one; stores the existing value in found[0] when the key is present
+        abstract Node put(Object edit, int shift, int hash, Object key, Object value, Object[] found);
+    }
+
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(null, 0, new Object[0]);
+
+        int bitmap;
+
+        BitmapNode(Object edit, int bitmap, Object[] array) {
+            super(edit, array);
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        Object get(int shift, int hash, Object key) {
+            int bit = 1 << ((hash >>> shift) & 31);
+            if ((bitmap & bit) == 0) return null;
+            int i = 2 * Integer.bitCount(bitmap & (bit - 1));
+            Object k = array[i];
+            if (k == null) return ((Node) array[i + 1]).get(shift + BITS, hash, key);
+            return k == key || k.equals(key) ? array[i + 1] : null;
+        }
+
+        @Override
+        Node put(Object edit, int shift, int hash, Object key, Object value, Object[] found) {
+            int bit = 1 << ((hash >>> shift) & 31);
+            int i = 2 * Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) != 0) {
+                Object k = array[i];
+                Object v = array[i + 1];
+                Node child;
+                if (k == null) {
+                    child = ((Node) v).put(edit, shift + BITS, hash, key, value, found);
+                    if (child == v) return this;
+                } else if (k == key || k.equals(key)) {
+                    found[0] = v;
+                    return this;
+                } else {
+                    child = pair(edit, shift + BITS, k, v, hash, key, value);
+                }
+                BitmapNode node = editable(edit);
+                node.array[i] = null;
+                node.array[i + 1] = child;
+                return node;
+            }
+            Object[] newArray = new Object[array.length + 2];
+            System.arraycopy(array, 0, newArray, 0, i);
+            newArray[i] = key;
+            newArray[i + 1] = value;
+            System.arraycopy(array, i, newArray, i + 2, array.length - i);
+            if (edit != null && this.edit == edit) {
+                this.bitmap |= bit;
+                this.array = newArray;
+                return this;
+            }
+            return new BitmapNode(edit, bitmap | bit, newArray);
+        }
+
+        private BitmapNode editable(Object edit) {
+            if (this.edit == edit) return this;
+            return new BitmapNode(edit, bitmap, array.clone());
+        }
+
+        private static Node pair(Object edit, int shift, Object k1, Object v1, int h2, Object k2, Object v2) {
+            int h1 = hash(k1);
+            if (h1 == h2) return new CollisionNode(edit, h1, new Object[]{k1, v1, k2, v2});
+            Object[] unused = new Object[1];
+            return new BitmapNode(edit, 0, new Object[0])
+                    .put(edit, shift, h1, k1, v1, unused)
+                    .put(edit, shift, h2, k2, v2, unused);
+        }
+    }
+
+    private static final class CollisionNode extends Node {
+        final int hash;
+
+        CollisionNode(Object edit, int hash, Object[] array) {
+            super(edit, array);
+            this.hash = hash;
+        }
+
+        @Override
+        Object get(int shift, int hash, Object key) {
+            if (hash != this.hash) return null;
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i].equals(key)) return array[i + 1];
+            }
+            return null;
+        }
+
+        @Override
+        Node put(Object edit, int shift, int hash, Object key, Object value, Object[] found) {
+            if (hash != this.hash) {
+                BitmapNode parent = new BitmapNode(edit, 1 << ((this.hash >>> shift) & 31), new Object[]{null, this});
+                return parent.put(edit, shift, hash, key, value, found);
+            }
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i].equals(key)) {
+                    found[0] = array[i + 1];
+                    return this;
+                }
+            }
+            Object[] newArray = Arrays.copyOf(array, array.length + 2);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            if (edit != null && this.edit == edit) {
+                this.array = newArray;
+                return this;
+            }
+            return new CollisionNode(edit, hash, newArray);
+        }
+    }
+
+    private static final class TrieCursor<K, V> implements Cursor<K, V> {
+        private final Object[][] stack = new Object[MAX_DEPTH][];
+        private final int[] positions = new int[MAX_DEPTH];
+        private int depth;
+        private Object key;
+        private Object value;
+
+        TrieCursor(Node root) {
+            stack[0] = root.array;
+        }
+
+        @Override
+        public boolean next() {
+            while (depth >= 0) {
+                Object[] array = stack[depth];
+                int p = positions[depth];
+                if (p >= array.length) {
+                    depth--;
+                    continue;
+                }
+                positions[depth] = p + 2;
+                if (array[p] == null) {
+                    depth++;
+                    stack[depth] = ((Node) array[p + 1]).array;
+                    positions[depth] = 0;
+                } else {
+                    key = array[p];
+                    value = array[p + 1];
+                    return true;
+                }
+            }
+            key = null;
+            value = null;
+            return false;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public K key() {
+            if (key == null) throw new IllegalStateException("No current element");
+            return (K) key;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V value() {
+            if (value == null) throw new IllegalStateException("No current element");
+            return (V) value;
+        }
+    }
+}
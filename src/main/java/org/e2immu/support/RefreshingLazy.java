@@ -0,0 +1,187 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.*;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A lazily computed value which does not live forever, unlike {@link Lazy} and {@link ConcurrentLazy}.
+ * Two policies, each measured from the moment the current value was computed, can be combined:
+ * <ul>
+ *     <li>expire-after-write: an expired value is never returned; the caller computes a new one, while other
+ *     callers wait;</li>
+ *     <li>refresh-after-write: a stale value is still returned, without blocking, while a single background task,
+ *     running on the executor, computes its replacement.</li>
+ * </ul>
+ * When a refresh fails, the old value is kept, and the next call after the refresh interval tries again.
+ * When both policies are present, the refresh interval must be shorter than the expiry interval.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ *
+ * @param <T> the container's content type
+ */
+@Container
+public class RefreshingLazy<T> {
+
+    private static final class Entry<T> {
+        final T value;
+        final long writtenAt;
+
+        Entry(T value, long writtenAt) {
+            this.value = value;
+            this.writtenAt = writtenAt;
+        }
+    }
+
+    private final Supplier<T> supplier;
+    private final long expireNanos;
+    private final long refreshNanos;
+    private final Executor executor;
+    private final LongSupplier ticker;
+
+    private final AtomicReference<Entry<T>> entry = new AtomicReference<>();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Construct the object by storing the supplier and the policies.
+     *
+     * @param supplier          the supplier that will compute the value; it should not produce a null value
+     * @param expireAfterWrite  the time after which a value may not be returned anymore, or <code>null</code> for never
+     * @param refreshAfterWrite the time after which a value is recomputed in the background,
+     *                          or <code>null</code> for never
+     * @param executor          the executor running the background refresh
+     * @throws NullPointerException     when the supplier or the executor is <code>null</code>
+     * @throws IllegalArgumentException when both policies are absent, a duration is not positive,
+     *                                  or the refresh interval is not shorter than the expiry interval
+     */
+    public RefreshingLazy(@NotNull Supplier<T> supplier,
+                          @Nullable Duration expireAfterWrite,
+                          @Nullable Duration refreshAfterWrite,
+                          @NotNull Executor executor) {
+        this(supplier, expireAfterWrite, refreshAfterWrite, executor, System::nanoTime);
+    }
+
+    RefreshingLazy(Supplier<T> supplier, Duration expireAfterWrite, Duration refreshAfterWrite,
+                   Executor executor, LongSupplier ticker) {
+        this.supplier = Objects.requireNonNull(supplier);
+        this.executor = Objects.requireNonNull(executor);
+        this.ticker = ticker;
+        this.expireNanos = nanos(expireAfterWrite);
+        this.refreshNanos = nanos(refreshAfterWrite);
+        if (expireNanos == Long.MAX_VALUE && refreshNanos == Long.MAX_VALUE) {
+            throw new IllegalArgumentException("Need at least one of expire-after-write and refresh-after-write");
+        }
+        if (refreshNanos != Long.MAX_VALUE && refreshNanos >= expireNanos) {
+            throw new IllegalArgumentException("Refresh interval must be shorter than the expiry interval");
+        }
+    }
+
+    private static long nanos(Duration duration) {
+        if (duration == null) return Long.MAX_VALUE;
+        if (duration.isNegative() || duration.isZero()) throw new IllegalArgumentException("Must be positive");
+        return duration.toNanos();
+    }
+
+    /**
+     * Obtain the value. Computes it when there is none yet, or when it has expired.
+     * Otherwise, returns the current value, and schedules a refresh when it is stale.
+     *
+     * @return the value
+     * @throws NullPointerException if the evaluation returns <code>null</code>
+     */
+    @NotNull
+    @Modified
+    public T get() {
+        Entry<T> e = entry.get();
+        long now = ticker.getAsLong();
+        if (e == null || now - e.writtenAt >= expireNanos) {
+            return load();
+        }
+        if (now - e.writtenAt >= refreshNanos) {
+            scheduleRefresh(e);
+        }
+        return e.value;
+    }
+
+    private T load() {
+        lock.lock();
+        try {
+            // another thread may have loaded while we were waiting
+            Entry<T> e = entry.get();
+            if (e != null && ticker.getAsLong() - e.writtenAt < expireNanos) return e.value;
+            T v = Objects.requireNonNull(supplier.get());
+            entry.set(new Entry<>(v, ticker.getAsLong()));
+            return v;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void scheduleRefresh(Entry<T> stale) {
+        if (!refreshing.compareAndSet(false, true)) return;
+        try {
+            executor.execute(() -> refresh(stale));
+        } catch (RejectedExecutionException ree) {
+            refreshing.set(false);
+        }
+    }
+
+    private void refresh(Entry<T> stale) {
+        try {
+            T v = Objects.requireNonNull(supplier.get());
+            // a synchronous load may have replaced the stale value in the meantime; keep the more recent one
+            entry.compareAndSet(stale, new Entry<>(v, ticker.getAsLong()));
+        } catch (RuntimeException re) {
+            // keep the old value; the next call after the refresh interval will try again
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    /**
+     * Discard the current value, so that the next call to <code>get()</code> computes a new one.
+     */
+    @Modified
+    public void invalidate() {
+        entry.set(null);
+    }
+
+    /**
+     * @return true when a value is present, even if it is stale or expired
+     */
+    @NotModified
+    public boolean hasBeenEvaluated() {
+        return entry.get() != null;
+    }
+
+    /**
+     * @return true while a background refresh is scheduled or running
+     */
+    @NotModified
+    public boolean isRefreshing() {
+        return refreshing.get();
+    }
+}
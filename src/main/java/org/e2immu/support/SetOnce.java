@@ -19,12 +19,22 @@ import org.e2immu.annotation.eventual.Mark;
 import org.e2immu.annotation.eventual.Only;
 import org.e2immu.annotation.eventual.TestMark;
 
+import java.time.Duration;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 /**
  * Simple example eventually level 2 immutable type which can hold a single value.
  * This value is either not yet set, or set and immutable.
  * <p>
+ * Besides polling with {@link #isSet()}, threads can wait for the value with {@link #await()}, or register listeners
+ * with {@link #onSet(Consumer)}. Waiting threads park; they do not spin.
+ * <p>
  * This is an example class! Please extend and modify for your needs.
  *
  * @param <T> The value's type.
@@ -36,6 +46,9 @@ public class SetOnce<T> {
     @Nullable // eventually not-null, not implemented yet
     private volatile T t;
 
+    // created on demand, only when a thread waits or listens before the value is set; guarded by this
+    private CompletableFuture<T> promise;
+
     /**
      * Set a value. You can do this only once per object.
      *
@@ -47,14 +60,91 @@ public class SetOnce<T> {
     @Modified
     public void set(@NotNull T t) {
         if (t == null) throw new NullPointerException("Null not allowed");
+        CompletableFuture<T> p;
         synchronized (this) {
             if (this.t != null) {
                 throw new IllegalStateException("Already set: have " + this.t + ", try to set " + t);
             }
             this.t = t;
+            p = promise;
+        }
+        // listeners run after publication, outside the lock
+        if (p != null) p.complete(t);
+    }
+
+    private CompletableFuture<T> promise() {
+        T v = t;
+        if (v != null) return CompletableFuture.completedFuture(v);
+        synchronized (this) {
+            if (t != null) return CompletableFuture.completedFuture(t);
+            if (promise == null) promise = new CompletableFuture<>();
+            return promise;
+        }
+    }
+
+    /**
+     * Wait until the value has been set.
+     *
+     * @return The value, never null.
+     * @throws InterruptedException when the waiting thread is interrupted
+     */
+    @NotNull
+    @NotModified
+    public T await() throws InterruptedException {
+        T v = t;
+        if (v != null) return v;
+        try {
+            return promise().get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e); // cannot happen, the promise never fails
+        }
+    }
+
+    /**
+     * Wait until the value has been set, or the timeout has passed.
+     *
+     * @param timeout the maximal time to wait
+     * @return The value, or null when the timeout passed before the value was set.
+     * @throws InterruptedException when the waiting thread is interrupted
+     */
+    @Nullable
+    @NotModified
+    public T await(@NotNull Duration timeout) throws InterruptedException {
+        T v = t;
+        if (v != null) return v;
+        try {
+            return promise().get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e); // cannot happen, the promise never fails
         }
     }
 
+    /**
+     * A read-only view which completes when the value is set. It cannot be completed from the outside.
+     *
+     * @return a completion stage with the value
+     */
+    @NotNull
+    @NotModified
+    public CompletionStage<T> toCompletionStage() {
+        return promise().minimalCompletionStage();
+    }
+
+    /**
+     * Register a listener, which runs exactly once, with the value, after the value has been set:
+     * immediately, on the calling thread, when the value is already set; otherwise on the thread that sets the
+     * value, after <code>set</code> has published it. Exceptions thrown by the listener are not propagated.
+     *
+     * @param listener the listener
+     */
+    @NotModified
+    public void onSet(@NotNull Consumer<? super T> listener) {
+        Objects.requireNonNull(listener);
+        promise().thenAccept(listener);
+    }
+
     /**
      * Obtain the value, but only if it has been set before.
      *
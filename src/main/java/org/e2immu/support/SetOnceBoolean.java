@@ -0,0 +1,155 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.*;
+import org.e2immu.annotation.eventual.Mark;
+import org.e2immu.annotation.eventual.Only;
+import org.e2immu.annotation.eventual.TestMark;
+
+/**
+ * Specialization of {@link SetOnce} for a <code>boolean</code> value, which is stored unboxed.
+ * A separate flag records whether the value has been set; reading the value neither allocates nor unboxes.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ */
+@ImmutableContainer(after = "t")
+public class SetOnceBoolean {
+
+    @Final(after = "t")
+    private volatile boolean set;
+
+    // written before, and read after, the volatile flag
+    @Final(after = "t")
+    private boolean t;
+
+    /**
+     * Set a value. You can do this only once per object.
+     *
+     * @param t the value to set
+     * @throws IllegalStateException if a value had been set before
+     */
+    @Mark("t")
+    @Modified
+    public void set(boolean t) {
+        synchronized (this) {
+            if (set) {
+                throw new IllegalStateException("Already set: have " + this.t + ", try to set " + t);
+            }
+            this.t = t;
+            set = true;
+        }
+    }
+
+    /**
+     * Obtain the value, but only if it has been set before.
+     *
+     * @return The value.
+     * @throws IllegalStateException if the value had not been set before.
+     */
+    @Only(after = "t")
+    @NotModified
+    public boolean get() {
+        if (!set) {
+            throw new IllegalStateException("Not yet set");
+        }
+        return t;
+    }
+
+    /**
+     * Obtain the value, but only if it has been set before.
+     * More informative version.
+     *
+     * @param message a message to show in the exception
+     * @return The value.
+     * @throws IllegalStateException if the value had not been set before.
+     */
+    @Only(after = "t")
+    @NotModified
+    public boolean get(String message) {
+        if (!set) {
+            throw new IllegalStateException("Not yet set: " + message);
+        }
+        return t;
+    }
+
+    /**
+     * More flexible <code>get</code> method. Returns an alternative value when the value has not yet been set.
+     *
+     * @param alternative the alternative value
+     * @return the value, or the alternative.
+     */
+    @NotModified
+    public boolean getOrDefault(boolean alternative) {
+        return set ? t : alternative;
+    }
+
+    /**
+     * Test if a value has been set.
+     *
+     * @return <code>true</code> if a value has been set.
+     */
+    @NotModified
+    @TestMark("t")
+    public boolean isSet() {
+        return set;
+    }
+
+    /**
+     * Copy the value of another <code>SetOnceBoolean</code> object.
+     *
+     * @param other the object whose value will be copied, if set.
+     */
+    @Modified
+    @Mark("t")
+    public void copy(@NotNull @NotModified SetOnceBoolean other) {
+        if (other.isSet()) set(other.get());
+    }
+
+    /**
+     * Simple toString.
+     *
+     * @return a string representation of the <code>SetOnceBoolean</code> object.
+     */
+    @Override
+    public String toString() {
+        return "SetOnceBoolean{" + (set ? "t=" + t : "not set") + '}';
+    }
+
+    /**
+     * Standard equals method: equal when both are not set, or both are set to the same value.
+     *
+     * @param o the object to compare
+     * @return equals
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SetOnceBoolean other = (SetOnceBoolean) o;
+        if (set != other.set) return false;
+        return !set || t == other.t;
+    }
+
+    /**
+     * The hashCode
+     *
+     * @return the hashCode of the value, or 0 when not set
+     */
+    @Override
+    public int hashCode() {
+        return set ? Boolean.hashCode(t) : 0;
+    }
+}
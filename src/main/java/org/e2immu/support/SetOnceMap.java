@@ -15,18 +15,26 @@
 package org.e2immu.support;
 
 import org.e2immu.annotation.*;
+import org.e2immu.annotation.eventual.Mark;
 import org.e2immu.annotation.eventual.Only;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Example of an eventually level 2 immutable map, where each key can be put only once,
  * and removal is not permitted. Once the map is frozen, elements cannot be added anymore.
  * <p>
+ * While the map is being built, its content is held in a <code>LinkedHashMap</code>. On <code>freeze()</code>,
+ * the content moves into a compact, insertion-ordered array representation, which serves all lookups and iterations
+ * from then on. Iteration follows insertion order, before and after freezing.
+ * When the number of entries is known in advance, use the constructor with a capacity hint, or the bulk
+ * <code>putAll</code> methods, which size the backing map once when called on an empty map.
+ * <p>
  * This is an example class! Please extend and modify for your needs.
  *
  * @param <K> The type for keys.
@@ -35,7 +43,78 @@ import java.util.stream.Stream;
 @ImmutableContainer(after = "frozen", hc = true)
 public class SetOnceMap<K, V> extends Freezable {
 
-    private final Map<K, V> map = new HashMap<>();
+    // cleared by freeze(), after table has been written; readers read it first, and fall back to table when
+    // it is null, so that a read which races freeze() finds one of the two
+    @Final(after = "frozen")
+    private volatile Map<K, V> map;
+
+    @Final(after = "frozen")
+    private volatile FrozenTable<K, V> table;
+
+    /**
+     * Create an empty map.
+     */
+    public SetOnceMap() {
+        map = new LinkedHashMap<>();
+    }
+
+    /**
+     * Create an empty map which can hold the given number of entries without growing.
+     *
+     * @param expectedSize the number of entries expected
+     * @throws IllegalArgumentException when the expected size is negative
+     */
+    public SetOnceMap(int expectedSize) {
+        if (expectedSize < 0) throw new IllegalArgumentException("Negative size: " + expectedSize);
+        map = new LinkedHashMap<>(capacityFor(expectedSize));
+    }
+
+    /*
+    Create a map which is frozen from the start, with content served by the table.
+     */
+    SetOnceMap(@NotNull FrozenTable<K, V> table) {
+        this.table = Objects.requireNonNull(table);
+        super.freeze();
+    }
+
+    private static int capacityFor(int expectedSize) {
+        return (int) Math.min(1 << 30, expectedSize * 4L / 3 + 1);
+    }
+
+    /*
+    Make room for the given number of entries in one go, while the map is still empty; otherwise, leave the growth
+    to the map itself, which amortizes it, rather than copying the entries on every bulk call.
+     */
+    private void ensureCapacityFor(long additional) {
+        if (map.isEmpty() && additional > 0) {
+            map = new LinkedHashMap<>(capacityFor((int) Math.min(Integer.MAX_VALUE, additional)));
+        }
+    }
+
+    /**
+     * Freeze the map, and move its content into a compact array representation.
+     *
+     * @throws IllegalStateException when the map was already frozen.
+     */
+    @Mark("frozen")
+    @Override
+    public void freeze() {
+        freeze(FreezeOptions.DEFAULT);
+    }
+
+    /**
+     * Freeze the map, and move its content into the representation chosen by the options.
+     *
+     * @param options the representation, see {@link FreezeOptions}
+     * @throws IllegalStateException when the map was already frozen.
+     */
+    @Mark("frozen")
+    public void freeze(@NotNull FreezeOptions options) {
+        ensureNotFrozen();
+        table = options.table(map);
+        map = null;
+        super.freeze();
+    }
 
     /**
      * Put an key-value pair in the map. You cannot use the same key twice, not even with the same value.
@@ -52,10 +131,69 @@ public class SetOnceMap<K, V> extends Freezable {
         Objects.requireNonNull(k);
         Objects.requireNonNull(v);
         ensureNotFrozen();
-        if (isSet(k)) {
-            throw new IllegalStateException("Already decided on " + k + ": have " + get(k) + ", want to write " + v);
+        V prev = map.putIfAbsent(k, v);
+        if (prev != null) {
+            throw new IllegalStateException("Already decided on " + k + ": have " + prev + ", want to write " + v);
         }
-        map.put(k, v);
+    }
+
+    /*
+    Bulk insert: one hash lookup per key. Keys that are already present are collected and reported together,
+    after all other entries have been added.
+     */
+    private void putAllInternal(Iterator<? extends Map.Entry<? extends K, ? extends V>> entries) {
+        Map<K, V> m = map;
+        List<K> conflicts = null;
+        while (entries.hasNext()) {
+            Map.Entry<? extends K, ? extends V> e = entries.next();
+            K k = Objects.requireNonNull(e.getKey());
+            V v = Objects.requireNonNull(e.getValue());
+            if (m.putIfAbsent(k, v) != null) {
+                if (conflicts == null) conflicts = new ArrayList<>();
+                conflicts.add(k);
+            }
+        }
+        if (conflicts != null) {
+            throw new IllegalStateException("Already decided on " + conflicts.size() + " key(s): " + conflicts);
+        }
+    }
+
+    /**
+     * Put all key-value pairs of a map. The backing map is sized once for the new entries.
+     * As with <code>put</code>, keys must not be present yet, and null keys or values are not permitted.
+     * Entries whose key is not yet present are added, even when others are rejected.
+     *
+     * @param source the entries to add
+     * @throws IllegalStateException when the map is already frozen, or some keys were already present;
+     *                               the message lists these keys.
+     * @throws NullPointerException  when a key or value is null
+     */
+    @Only(before = "frozen")
+    @Modified
+    public void putAll(@NotNull(content = true) Map<? extends K, ? extends V> source) {
+        ensureNotFrozen();
+        ensureCapacityFor(source.size());
+        putAllInternal(source.entrySet().iterator());
+    }
+
+    /**
+     * Put all key-value pairs of a stream. When the stream knows its size, the backing map is sized once.
+     * As with <code>put</code>, keys must not be present yet, and null keys or values are not permitted.
+     * Entries whose key is not yet present are added, even when others are rejected.
+     *
+     * @param source the entries to add
+     * @throws IllegalStateException when the map is already frozen, or some keys were already present, or occurred
+     *                               more than once in the stream; the message lists these keys.
+     * @throws NullPointerException  when a key or value is null
+     */
+    @Only(before = "frozen")
+    @Modified
+    public void putAll(@NotNull(content = true) Stream<? extends Map.Entry<? extends K, ? extends V>> source) {
+        ensureNotFrozen();
+        Spliterator<? extends Map.Entry<? extends K, ? extends V>> spliterator = source.spliterator();
+        long size = spliterator.getExactSizeIfKnown();
+        if (size > 0) ensureCapacityFor(size);
+        putAllInternal(Spliterators.iterator(spliterator));
     }
 
 
@@ -74,7 +212,7 @@ public class SetOnceMap<K, V> extends Freezable {
     @Modified
     public V getOrCreate(@NotNull K k, @Container(contract = true) @NotNull(content = true) Function<K, V> generator) {
         ensureNotFrozen();
-        V v = map.get(k);
+        V v = map.get(Objects.requireNonNull(k));
         if (v != null) return v;
         V vv = Objects.requireNonNull(generator.apply(k));
         map.put(k, vv);
@@ -92,8 +230,9 @@ public class SetOnceMap<K, V> extends Freezable {
     @NotNull
     @NotModified
     public V get(@NotNull K k) {
-        if (!isSet(k)) throw new IllegalStateException("Not yet decided on " + k);
-        return Objects.requireNonNull(map.get(k));
+        V v = getOrDefaultNull(k);
+        if (v == null) throw new IllegalStateException("Not yet decided on " + k);
+        return v;
     }
 
     /**
@@ -105,7 +244,8 @@ public class SetOnceMap<K, V> extends Freezable {
     @Nullable
     @NotModified
     public V getOrDefaultNull(@NotNull K k) {
-        return map.get(k);
+        Map<K, V> m = map;
+        return m != null ? m.get(k) : table.get(k);
     }
 
     /**
@@ -119,7 +259,9 @@ public class SetOnceMap<K, V> extends Freezable {
     @NotModified
     @NotNull
     public V getOrDefault(@NotNull K k, @NotNull V v) {
-        return Objects.requireNonNull(map.getOrDefault(k, Objects.requireNonNull(v)));
+        Objects.requireNonNull(v);
+        V value = getOrDefaultNull(k);
+        return value == null ? v : value;
     }
 
     /**
@@ -129,7 +271,8 @@ public class SetOnceMap<K, V> extends Freezable {
      */
     @NotModified
     public int size() {
-        return map.size();
+        Map<K, V> m = map;
+        return m != null ? m.size() : table.size();
     }
 
     /**
@@ -140,7 +283,8 @@ public class SetOnceMap<K, V> extends Freezable {
      */
     @NotModified
     public boolean isSet(K k) {
-        return map.containsKey(k);
+        Map<K, V> m = map;
+        return m != null ? m.containsKey(k) : table.containsKey(k);
     }
 
     /**
@@ -150,11 +294,25 @@ public class SetOnceMap<K, V> extends Freezable {
      */
     @NotModified
     public boolean isEmpty() {
-        return map.isEmpty();
+        return size() == 0;
     }
 
     /**
-     * Return a stream of map keys.
+     * Obtain the counters of the Bloom filter in front of the lookups, when the map was frozen with
+     * {@link FreezeOptions#withBloomFilter(double)}.
+     *
+     * @return a snapshot of the counters, or null when the map is not frozen, or has no filter.
+     */
+    @Nullable
+    @NotModified
+    public FilterStatistics filterStatistics() {
+        FrozenTable<K, V> t = table;
+        return t instanceof FilteredTable ? ((FilteredTable<K, V>) t).statistics() : null;
+    }
+
+    /**
+     * Return a stream of map keys. Once the map is frozen, the stream is array-based and splits evenly
+     * in parallel.
      *
      * @return a stream of map keys.
      */
@@ -162,11 +320,13 @@ public class SetOnceMap<K, V> extends Freezable {
     @NotModified
     @Independent(hc = true)
     public Stream<K> keyStream() {
-        return map.keySet().stream();
+        Map<K, V> m = map;
+        return m != null ? m.keySet().stream() : StreamSupport.stream(table.keySpliterator(), false);
     }
 
     /**
-     * Return a stream of map values.
+     * Return a stream of map values. Once the map is frozen, the stream is array-based and splits evenly
+     * in parallel.
      *
      * @return a stream of map values.
      */
@@ -174,10 +334,73 @@ public class SetOnceMap<K, V> extends Freezable {
     @NotModified
     @Independent(hc = true)
     public Stream<V> valueStream() {
-        return map.values().stream();
+        Map<K, V> m = map;
+        return m != null ? m.values().stream() : StreamSupport.stream(table.valueSpliterator(), false);
     }
 
 
+    /**
+     * Iterate over all key-value pairs, in insertion order. No objects are allocated per pair.
+     *
+     * @param consumer receives the key and the value of each pair; no nulls will be presented.
+     * @throws NullPointerException when the consumer is null
+     */
+    @NotModified
+    public void forEach(@NotNull(content = true) @Independent(hc = true) BiConsumer<K, V> consumer) {
+        Objects.requireNonNull(consumer);
+        Map<K, V> m = map;
+        if (m != null) {
+            m.forEach(consumer);
+        } else {
+            FrozenTable<K, V> t = table;
+            for (int i = 0; i < t.size(); i++) consumer.accept(t.key(i), t.value(i));
+        }
+    }
+
+    @Override
+    void forEachNested(Consumer<Object> consumer) {
+        forEach((k, v) -> {
+            consumer.accept(k);
+            consumer.accept(v);
+        });
+    }
+
+    /**
+     * Iterate over all key-value pairs, in insertion order, with a single cursor object which is positioned on
+     * each pair in turn. The map must not be modified while the cursor is in use.
+     *
+     * @return a cursor, positioned before the first pair.
+     */
+    @NotNull
+    @NotModified
+    @Independent(hc = true)
+    public Cursor<K, V> cursor() {
+        Map<K, V> m = map;
+        if (m == null) return table.cursor();
+        Iterator<Map.Entry<K, V>> iterator = m.entrySet().iterator();
+        return new Cursor<K, V>() {
+            private Map.Entry<K, V> current;
+
+            @Override
+            public boolean next() {
+                current = iterator.hasNext() ? iterator.next() : null;
+                return current != null;
+            }
+
+            @Override
+            public K key() {
+                if (current == null) throw new IllegalStateException("No current element");
+                return current.getKey();
+            }
+
+            @Override
+            public V value() {
+                if (current == null) throw new IllegalStateException("No current element");
+                return current.getValue();
+            }
+        };
+    }
+
     /*
     Return entries that cannot be set, so that the stream is immutable.
      */
@@ -222,33 +445,55 @@ public class SetOnceMap<K, V> extends Freezable {
     @NotModified
     @Independent(hc = true)
     public Stream<Map.Entry<K, V>> stream() {
-        return map.entrySet().stream().map(e -> new Entry<>(e.getKey(), e.getValue()));
+        Map<K, V> m = map;
+        if (m == null) return StreamSupport.stream(table.entrySpliterator(Entry::new), false);
+        return m.entrySet().stream().map(e -> new Entry<>(e.getKey(), e.getValue()));
     }
 
     /**
-     * Convenience method which calls <code>put</code> for every key-value pair in the
-     * argument.
+     * Convenience method which puts every key-value pair in the argument. Unlike <code>putAll(Map)</code>,
+     * nothing is added when one of the keys is already present.
      *
      * @param setOnceMap the source.
+     * @throws IllegalStateException when the map is already frozen, or some keys were already present;
+     *                               the message lists these keys, and the map is left unchanged.
      */
     @Only(before = "frozen")
+    @Modified
     public void putAll(@Independent(hc = true) SetOnceMap<K, V> setOnceMap) {
         // NOTE: this line in technically not needed, https://github.com/e2immu/e2immu/issues/49
         ensureNotFrozen();
-        setOnceMap.map.forEach(this::put);
+        Map<K, V> source = setOnceMap.map;
+        if (source == null) source = setOnceMap.table.asMap();
+        Map<K, V> m = map;
+        List<K> conflicts = null;
+        for (K k : source.keySet()) {
+            if (m.containsKey(k)) {
+                if (conflicts == null) conflicts = new ArrayList<>();
+                conflicts.add(k);
+            }
+        }
+        if (conflicts != null) {
+            throw new IllegalStateException("Already decided on " + conflicts.size() + " key(s): " + conflicts);
+        }
+        ensureCapacityFor(source.size());
+        putAllInternal(source.entrySet().iterator());
     }
 
     /**
-     * Return a level 2 immutable copy of the underlying map.
+     * Return a level 2 immutable version of the underlying map. Before freezing, this is a copy.
+     * Once the map is frozen, it is an unmodifiable view on the frozen content, which is created only once;
+     * every call returns the same object. The view iterates in insertion order.
      * <p>
      * Only present in Java 10+.
      *
-     * @return a level 2 immutable copy
+     * @return a level 2 immutable copy or view
      */
     @NotNull
     @NotModified
     @ImmutableContainer
     public Map<K, V> toImmutableMap() {
-        return Map.copyOf(map);
+        Map<K, V> m = map;
+        return m != null ? Map.copyOf(m) : table.asMap();
     }
 }
@@ -0,0 +1,465 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.*;
+import org.e2immu.annotation.eventual.Mark;
+import org.e2immu.annotation.eventual.Only;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Variant of {@link SetOnceMap} whose keys are ordered, either naturally or by a comparator.
+ * While the map is being built, puts arrive in any order, and are held in a <code>HashMap</code>.
+ * On <code>freeze()</code>, the entries are sorted once into two contiguous arrays, of keys and of values.
+ * From then on, lookups are binary searches, and the navigation methods <code>floorKey</code>,
+ * <code>ceilingKey</code>, <code>lowerKey</code> and <code>higherKey</code> are available.
+ * <p>
+ * Range views, obtained by <code>subMap</code>, <code>headMap</code> and <code>tailMap</code>, are frozen maps
+ * sharing the arrays of the map they are taken from: creating one costs two binary searches and one small object.
+ * Iterating over a range, with <code>forEach</code>, a {@link Cursor} or a stream, walks the arrays in key order
+ * without allocating anything per entry.
+ * <p>
+ * The ordering must be consistent with <code>equals</code>: freezing fails when two different keys compare as equal.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ *
+ * @param <K> The type for keys.
+ * @param <V> The type for values.
+ */
+@ImmutableContainer(after = "frozen", hc = true)
+public class SortedSetOnceMap<K, V> extends Freezable {
+
+    @Nullable
+    private final Comparator<? super K> comparator;
+
+    @Final(after = "frozen")
+    private Map<K, V> map;
+
+    // after freezing, the entries in [from, to) of the sorted arrays, which may be shared with other maps
+    @Final(after = "frozen")
+    private K[] keys;
+    @Final(after = "frozen")
+    private V[] values;
+    @Final(after = "frozen")
+    private int from;
+    @Final(after = "frozen")
+    private int to;
+
+    /**
+     * Create an empty map, whose keys will be sorted in their natural order.
+     * Keys must implement {@link Comparable}.
+     */
+    public SortedSetOnceMap() {
+        this(null);
+    }
+
+    /**
+     * Create an empty map, whose keys will be sorted by the comparator.
+     *
+     * @param comparator the comparator, or null for the natural order of the keys
+     */
+    public SortedSetOnceMap(@Nullable Comparator<? super K> comparator) {
+        this.comparator = comparator;
+        map = new HashMap<>();
+    }
+
+    private SortedSetOnceMap(Comparator<? super K> comparator, K[] keys, V[] values, int from, int to) {
+        this.comparator = comparator;
+        this.keys = keys;
+        this.values = values;
+        this.from = from;
+        this.to = to;
+        super.freeze();
+    }
+
+    /**
+     * Freeze the map, and sort its content into arrays.
+     *
+     * @throws IllegalStateException when the map was already frozen, or when two different keys compare as equal.
+     * @throws ClassCastException    when there is no comparator, and the keys are not mutually comparable.
+     */
+    @Mark("frozen")
+    @Override
+    @SuppressWarnings("unchecked")
+    public void freeze() {
+        ensureNotFrozen();
+        Object[] entries = map.entrySet().toArray();
+        Arrays.sort(entries, (e1, e2) -> compare(((Map.Entry<K, V>) e1).getKey(), ((Map.Entry<K, V>) e2).getKey()));
+        int n = entries.length;
+        K[] sortedKeys = (K[]) new Object[n];
+        V[] sortedValues = (V[]) new Object[n];
+        for (int i = 0; i < n; i++) {
+            Map.Entry<K, V> e = (Map.Entry<K, V>) entries[i];
+            sortedKeys[i] = e.getKey();
+            sortedValues[i] = e.getValue();
+            if (i > 0 && compare(sortedKeys[i - 1], sortedKeys[i]) == 0) {
+                throw new IllegalStateException("Keys " + sortedKeys[i - 1] + " and " + sortedKeys[i]
+                        + " compare as equal");
+            }
+        }
+        keys = sortedKeys;
+        values = sortedValues;
+        to = n;
+        map = null;
+        super.freeze();
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(K k1, K k2) {
+        return comparator == null ? ((Comparable<? super K>) k1).compareTo(k2) : comparator.compare(k1, k2);
+    }
+
+    /**
+     * Put an key-value pair in the map. You cannot use the same key twice, not even with the same value.
+     * Null keys or values are not permitted.
+     *
+     * @param k the key, must not be null
+     * @param v the value, must not be null
+     * @throws IllegalStateException when the map is already frozen, or the key is already present
+     * @throws NullPointerException  when a parameter is null
+     */
+    @Only(before = "frozen")
+    @Modified
+    public void put(@NotNull K k, @NotNull V v) {
+        Objects.requireNonNull(k);
+        Objects.requireNonNull(v);
+        ensureNotFrozen();
+        V prev = map.putIfAbsent(k, v);
+        if (prev != null) {
+            throw new IllegalStateException("Already decided on " + k + ": have " + prev + ", want to write " + v);
+        }
+    }
+
+    /**
+     * Obtain the value for a given key, but only when the key is already present!
+     *
+     * @param k the key, not null
+     * @return the value, not null.
+     * @throws IllegalStateException when the key is not yet present.
+     */
+    @NotNull
+    @NotModified
+    public V get(@NotNull K k) {
+        V v = getOrDefaultNull(k);
+        if (v == null) throw new IllegalStateException("Not yet decided on " + k);
+        return v;
+    }
+
+    /**
+     * A more permissive method, which can be called whether the key is present or not.
+     * Once the map is frozen, this is a binary search.
+     *
+     * @param k the key.
+     * @return null when the key is not present, the value of the key otherwise.
+     */
+    @Nullable
+    @NotModified
+    public V getOrDefaultNull(@NotNull K k) {
+        Objects.requireNonNull(k);
+        if (map != null) return map.get(k);
+        int i = search(k);
+        return i >= 0 ? values[i] : null;
+    }
+
+    /**
+     * Check if the key has been set.
+     *
+     * @param k the key
+     * @return <code>true</code> when a value has been put for this key.
+     */
+    @NotModified
+    public boolean isSet(@NotNull K k) {
+        return getOrDefaultNull(k) != null;
+    }
+
+    /**
+     * Return the size of the map
+     *
+     * @return the size of the map.
+     */
+    @NotModified
+    public int size() {
+        return map != null ? map.size() : to - from;
+    }
+
+    /**
+     * Check if the map is empty.
+     *
+     * @return <code>true</code> when the map is empty.
+     */
+    @NotModified
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return the comparator, or null when the keys are sorted in their natural order.
+     */
+    @Nullable
+    @NotModified
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    private int search(K k) {
+        return Arrays.binarySearch(keys, from, to, k, comparator);
+    }
+
+    // index of the first key greater than (or equal to) k
+    private int ceilingIndex(K k, boolean inclusive) {
+        int i = search(Objects.requireNonNull(k));
+        if (i >= 0) return inclusive ? i : i + 1;
+        return -i - 1;
+    }
+
+    // index of the last key less than (or equal to) k
+    private int floorIndex(K k, boolean inclusive) {
+        int i = search(Objects.requireNonNull(k));
+        if (i >= 0) return inclusive ? i : i - 1;
+        return -i - 2;
+    }
+
+    private K keyOrNull(int i) {
+        return i >= from && i < to ? keys[i] : null;
+    }
+
+    /**
+     * @return the smallest key, or null when the map is empty.
+     */
+    @Only(after = "frozen")
+    @Nullable
+    @NotModified
+    public K firstKey() {
+        ensureFrozen();
+        return keyOrNull(from);
+    }
+
+    /**
+     * @return the largest key, or null when the map is empty.
+     */
+    @Only(after = "frozen")
+    @Nullable
+    @NotModified
+    public K lastKey() {
+        ensureFrozen();
+        return keyOrNull(to - 1);
+    }
+
+    /**
+     * @param k the key to search for
+     * @return the largest key less than or equal to <code>k</code>, or null when there is none.
+     */
+    @Only(after = "frozen")
+    @Nullable
+    @NotModified
+    public K floorKey(@NotNull K k) {
+        ensureFrozen();
+        return keyOrNull(floorIndex(k, true));
+    }
+
+    /**
+     * @param k the key to search for
+     * @return the smallest key greater than or equal to <code>k</code>, or null when there is none.
+     */
+    @Only(after = "frozen")
+    @Nullable
+    @NotModified
+    public K ceilingKey(@NotNull K k) {
+        ensureFrozen();
+        return keyOrNull(ceilingIndex(k, true));
+    }
+
+    /**
+     * @param k the key to search for
+     * @return the largest key strictly less than <code>k</code>, or null when there is none.
+     */
+    @Only(after = "frozen")
+    @Nullable
+    @NotModified
+    public K lowerKey(@NotNull K k) {
+        ensureFrozen();
+        return keyOrNull(floorIndex(k, false));
+    }
+
+    /**
+     * @param k the key to search for
+     * @return the smallest key strictly greater than <code>k</code>, or null when there is none.
+     */
+    @Only(after = "frozen")
+    @Nullable
+    @NotModified
+    public K higherKey(@NotNull K k) {
+        ensureFrozen();
+        return keyOrNull(ceilingIndex(k, false));
+    }
+
+    /**
+     * Return a frozen view on the keys between two bounds, which shares the arrays of this map.
+     *
+     * @param fromKey       the lower bound
+     * @param fromInclusive whether keys equal to the lower bound belong to the view
+     * @param toKey         the upper bound
+     * @param toInclusive   whether keys equal to the upper bound belong to the view
+     * @return a frozen map
+     * @throws IllegalArgumentException when the lower bound is greater than the upper bound
+     */
+    @Only(after = "frozen")
+    @NotNull
+    @NotModified
+    @Independent(hc = true)
+    public SortedSetOnceMap<K, V> subMap(@NotNull K fromKey, boolean fromInclusive,
+                                         @NotNull K toKey, boolean toInclusive) {
+        ensureFrozen();
+        if (compare(fromKey, toKey) > 0) throw new IllegalArgumentException("fromKey > toKey");
+        int lo = ceilingIndex(fromKey, fromInclusive);
+        int hi = Math.max(lo, floorIndex(toKey, toInclusive) + 1);
+        return new SortedSetOnceMap<>(comparator, keys, values, lo, hi);
+    }
+
+    /**
+     * Return a frozen view on the keys less than (or equal to) a bound, which shares the arrays of this map.
+     *
+     * @param toKey     the upper bound
+     * @param inclusive whether a key equal to the upper bound belongs to the view
+     * @return a frozen map
+     */
+    @Only(after = "frozen")
+    @NotNull
+    @NotModified
+    @Independent(hc = true)
+    public SortedSetOnceMap<K, V> headMap(@NotNull K toKey, boolean inclusive) {
+        ensureFrozen();
+        return new SortedSetOnceMap<>(comparator, keys, values, from, floorIndex(toKey, inclusive) + 1);
+    }
+
+    /**
+     * Return a frozen view on the keys greater than (or equal to) a bound, which shares the arrays of this map.
+     *
+     * @param fromKey   the lower bound
+     * @param inclusive whether a key equal to the lower bound belongs to the view
+     * @return a frozen map
+     */
+    @Only(after = "frozen")
+    @NotNull
+    @NotModified
+    @Independent(hc = true)
+    public SortedSetOnceMap<K, V> tailMap(@NotNull K fromKey, boolean inclusive) {
+        ensureFrozen();
+        return new SortedSetOnceMap<>(comparator, keys, values, ceilingIndex(fromKey, inclusive), to);
+    }
+
+    /**
+     * Iterate over all key-value pairs, in key order. No objects are allocated per pair.
+     *
+     * @param consumer receives the key and the value of each pair; no nulls will be presented.
+     * @throws NullPointerException when the consumer is null
+     */
+    @Only(after = "frozen")
+    @NotModified
+    public void forEach(@NotNull(content = true) @Independent(hc = true) BiConsumer<K, V> consumer) {
+        Objects.requireNonNull(consumer);
+        ensureFrozen();
+        for (int i = from; i < to; i++) consumer.accept(keys[i], values[i]);
+    }
+
+    /**
+     * Iterate over all key-value pairs, in key order, with a single cursor object which is positioned on
+     * each pair in turn.
+     *
+     * @return a cursor, positioned before the first pair.
+     */
+    @Only(after = "frozen")
+    @NotNull
+    @NotModified
+    @Independent(hc = true)
+    public Cursor<K, V> cursor() {
+        ensureFrozen();
+        return new Cursor<K, V>() {
+            private int i = from - 1;
+
+            @Override
+            public boolean next() {
+                if (i < to) i++;
+                return i < to;
+            }
+
+            @Override
+            public K key() {
+                if (i < from || i >= to) throw new IllegalStateException("No current element");
+                return keys[i];
+            }
+
+            @Override
+            public V value() {
+                if (i < from || i >= to) throw new IllegalStateException("No current element");
+                return values[i];
+            }
+        };
+    }
+
+    private int characteristics() {
+        int c = FrozenTable.CHARACTERISTICS;
+        // array spliterators report a null comparator, which means natural order
+        return comparator == null ? c | Spliterator.SORTED : c;
+    }
+
+    /**
+     * Return a stream of the keys, in order.
+     *
+     * @return a stream of map keys.
+     */
+    @Only(after = "frozen")
+    @NotNull(content = true)
+    @NotModified
+    @Independent(hc = true)
+    public Stream<K> keyStream() {
+        ensureFrozen();
+        return StreamSupport.stream(Spliterators.spliterator(keys, from, to,
+                characteristics() | Spliterator.DISTINCT), false);
+    }
+
+    /**
+     * Return a stream of the values, in the order of their keys.
+     *
+     * @return a stream of map values.
+     */
+    @Only(after = "frozen")
+    @NotNull(content = true)
+    @NotModified
+    @Independent(hc = true)
+    public Stream<V> valueStream() {
+        ensureFrozen();
+        return StreamSupport.stream(Spliterators.spliterator(values, from, to, FrozenTable.CHARACTERISTICS), false);
+    }
+
+    /**
+     * Return a stream of immutable entries, in key order.
+     *
+     * @return a stream of map entries.
+     */
+    @Only(after = "frozen")
+    @NotNull(content = true)
+    @NotModified
+    @Independent(hc = true)
+    public Stream<Map.Entry<K, V>> stream() {
+        ensureFrozen();
+        return StreamSupport.stream(new FrozenTable.IndexSpliterator<Map.Entry<K, V>>(from, to,
+                i -> new AbstractMap.SimpleImmutableEntry<>(keys[i], values[i]), Spliterator.DISTINCT), false);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.e2immu.annotation.*;
+import org.e2immu.annotation.eventual.Mark;
+import org.e2immu.annotation.eventual.Only;
+import org.e2immu.annotation.eventual.TestMark;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A set of {@link Lazy} objects which are evaluated together, in parallel, typically at startup, so that the first
+ * requests do not pay for their evaluation.
+ * <p>
+ * Each lazy object can declare dependencies on lazy objects added before it; it is evaluated only after all of them
+ * have been evaluated. Because dependencies must already be members, they cannot form a cycle.
+ * Objects without a path of dependencies between them are evaluated concurrently, on the executor passed to
+ * <code>start</code>. When an evaluation fails, the objects depending on it are not evaluated, and waiting for
+ * the group reports the failure; the other objects are still evaluated.
+ * <p>
+ * The group measures the evaluation time of each lazy object. An object that had already been evaluated elsewhere
+ * takes next to no time.
+ * <p>
+ * This is an example class! Please extend and modify for your needs.
+ */
+@Container
+public final class WarmUpGroup {
+
+    private static final class Task {
+        final String name;
+        final Lazy<?> lazy;
+        final List<Task> dependents = new ArrayList<>();
+        final AtomicInteger pending;
+        volatile long nanos = -1;
+
+        Task(String name, Lazy<?> lazy, int dependencies) {
+            this.name = name;
+            this.lazy = lazy;
+            this.pending = new AtomicInteger(dependencies);
+        }
+    }
+
+    // guarded by this until started, read-only afterwards
+    private final Map<Lazy<?>, Task> tasks = new IdentityHashMap<>();
+    private final Set<String> names = new LinkedHashSet<>();
+    private final List<Task> inOrder = new ArrayList<>();
+
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private final AtomicInteger remaining = new AtomicInteger();
+
+    @Final(after = "started")
+    private volatile boolean started;
+
+    /**
+     * Add a lazy object to the group.
+     *
+     * @param name         a name, unique in the group, to report evaluation times and failures
+     * @param lazy         the lazy object
+     * @param dependencies lazy objects, already in the group, which must be evaluated first
+     * @param <T>          the content type of the lazy object
+     * @return the lazy object
+     * @throws IllegalStateException    when the group has been started
+     * @throws IllegalArgumentException when the name or the lazy object is already present,
+     *                                  or when a dependency is not present
+     */
+    @Only(before = "started")
+    @Modified
+    @NotNull
+    public <T> Lazy<T> add(@NotNull String name, @NotNull Lazy<T> lazy, @NotNull Lazy<?>... dependencies) {
+        Objects.requireNonNull(name);
+        Objects.requireNonNull(lazy);
+        synchronized (this) {
+            if (started) throw new IllegalStateException("Already started");
+            if (names.contains(name)) throw new IllegalArgumentException("Duplicate name: " + name);
+            if (tasks.containsKey(lazy)) throw new IllegalArgumentException("Already present: " + name);
+            List<Task> required = new ArrayList<>(dependencies.length);
+            for (Lazy<?> dependency : dependencies) {
+                Task task = tasks.get(dependency);
+                if (task == null) throw new IllegalArgumentException("Unknown dependency of " + name);
+                required.add(task);
+            }
+            Task task = new Task(name, lazy, required.size());
+            for (Task r : required) r.dependents.add(task);
+            names.add(name);
+            tasks.put(lazy, task);
+            inOrder.add(task);
+        }
+        return lazy;
+    }
+
+    /**
+     * @return the number of lazy objects added to the group.
+     */
+    @NotModified
+    public synchronized int size() {
+        return inOrder.size();
+    }
+
+    /**
+     * Start evaluating, in parallel, on the common fork-join pool.
+     *
+     * @throws IllegalStateException when the group has been started before
+     */
+    @Mark("started")
+    @Modified
+    public void start() {
+        start(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Start evaluating, in parallel, on the executor.
+     * Returns immediately; use {@link #awaitWarm(Duration)} to wait for the evaluations to end.
+     *
+     * @param executor the executor which runs the evaluations
+     * @throws IllegalStateException when the group has been started before
+     */
+    @Mark("started")
+    @Modified
+    public void start(@NotNull Executor executor) {
+        Objects.requireNonNull(executor);
+        List<Task> roots = new ArrayList<>();
+        synchronized (this) {
+            if (started) throw new IllegalStateException("Already started");
+            started = true;
+            remaining.set(inOrder.size());
+            for (Task task : inOrder) if (task.pending.get() == 0) roots.add(task);
+        }
+        if (roots.isEmpty()) done.complete(null);
+        for (Task task : roots) submit(task, executor);
+    }
+
+    private void submit(Task task, Executor executor) {
+        try {
+            executor.execute(() -> run(task, executor));
+        } catch (RejectedExecutionException ree) {
+            done.completeExceptionally(ree);
+        }
+    }
+
+    private void run(Task task, Executor executor) {
+        long start = System.nanoTime();
+        try {
+            task.lazy.get();
+        } catch (RuntimeException | Error e) {
+            done.completeExceptionally(new IllegalStateException("Warm-up of " + task.name + " failed", e));
+            return;
+        }
+        task.nanos = System.nanoTime() - start;
+        for (Task dependent : task.dependents) {
+            if (dependent.pending.decrementAndGet() == 0) submit(dependent, executor);
+        }
+        if (remaining.decrementAndGet() == 0) done.complete(null);
+    }
+
+    /**
+     * Wait until all lazy objects have been evaluated, or the timeout has passed.
+     *
+     * @param timeout the maximal time to wait
+     * @return <code>true</code> when all lazy objects have been evaluated; <code>false</code> when the timeout passed
+     * @throws IllegalStateException when the group has not been started, or when an evaluation failed; the cause of
+     *                               the latter is the exception thrown by the evaluation
+     * @throws InterruptedException  when the waiting thread is interrupted
+     */
+    @Only(after = "started")
+    @NotModified
+    public boolean awaitWarm(@NotNull Duration timeout) throws InterruptedException {
+        if (!started) throw new IllegalStateException("Not yet started");
+        try {
+            done.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            return true;
+        } catch (TimeoutException te) {
+            return false;
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof IllegalStateException) throw (IllegalStateException) cause;
+            throw new IllegalStateException("Warm-up failed", cause);
+        }
+    }
+
+    /**
+     * @return <code>true</code> when all lazy objects have been evaluated
+     */
+    @NotModified
+    public boolean isWarm() {
+        return done.isDone() && !done.isCompletedExceptionally();
+    }
+
+    /**
+     * @return <code>true</code> when the group has been started
+     */
+    @NotModified
+    @TestMark("started")
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * The evaluation time of each lazy object evaluated so far, in the order in which they were added.
+     *
+     * @return a new, unmodifiable map from the name of the lazy object to its evaluation time
+     */
+    @NotNull(content = true)
+    @NotModified
+    public Map<String, Duration> evaluationTimes() {
+        Map<String, Duration> map = new LinkedHashMap<>();
+        synchronized (this) {
+            for (Task task : inOrder) {
+                long nanos = task.nanos;
+                if (nanos >= 0) map.put(task.name, Duration.ofNanos(nanos));
+            }
+        }
+        return Collections.unmodifiableMap(map);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestAddOnceSet {
+
+    @Test
+    public void test1() {
+        AddOnceSet<String> set = new AddOnceSet<>();
+        String a = new String("abc");
+        set.add(a);
+        set.add("xyz");
+        assertEquals(2, set.size());
+        assertTrue(set.contains("abc"));
+        assertSame(a, set.get("abc"));
+        try {
+            set.add("abc");
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        try {
+            set.get("def");
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+    }
+
+    @Test
+    public void test2() {
+        AddOnceSet<String> set = new AddOnceSet<>();
+        String a = new String("abc");
+        set.add("xyz");
+        set.add(a);
+        set.add("123");
+        set.freeze();
+        assertTrue(set.isFrozen());
+        assertEquals(3, set.size());
+        assertFalse(set.isEmpty());
+        assertTrue(set.contains("abc"));
+        assertFalse(set.contains("def"));
+        assertSame(a, set.get("abc"));
+        try {
+            set.add("def");
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        assertEquals(List.of("xyz", "abc", "123"), set.stream().collect(Collectors.toList()));
+        List<String> list = new ArrayList<>();
+        set.forEach(list::add);
+        assertEquals(List.of("xyz", "abc", "123"), list);
+        assertEquals(Set.of("xyz", "abc", "123"), set.toImmutableSet());
+    }
+
+    @Test
+    public void test3() {
+        AddOnceSet<String> set = new AddOnceSet<>();
+        set.add("a");
+        set.add("b");
+        set.freeze();
+        Set<String> view = set.toImmutableSet();
+        assertSame(view, set.toImmutableSet());
+        assertEquals(Set.of("a", "b"), view);
+        assertEquals(view, Set.of("a", "b"));
+        assertEquals(Set.of("a", "b").hashCode(), view.hashCode());
+        assertTrue(view.contains("a"));
+        assertFalse(view.contains("c"));
+        try {
+            view.remove("a");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // normal behaviour
+        }
+        try {
+            view.iterator().remove();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // normal behaviour
+        }
+    }
+
+    @Test
+    public void test4() {
+        AddOnceSet<Integer> set = new AddOnceSet<>(100);
+        set.add(0);
+        set.addAll(List.of(1, 2, 3));
+        try {
+            set.addAll(List.of(3, 4, 0));
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Already decided on 2 element(s): [3, 0]", e.getMessage());
+        }
+        assertEquals(5, set.size());
+        set.freeze();
+        assertEquals(List.of(0, 1, 2, 3, 4), set.stream().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void test5() {
+        int n = 100_000;
+        List<String> elements = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) elements.add("element" + i);
+
+        AddOnceSet<String> set = new AddOnceSet<>();
+        for (String e : elements) set.add(e);
+        String copy = new String("element17");
+        assertSame(elements.get(17), set.get(copy));
+        assertTrue(set.contains(copy));
+        assertFalse(set.contains("element" + n));
+        assertEquals(elements, set.stream().collect(Collectors.toList()));
+
+        // the build phase allocates far less than a LinkedHashMap with the same content
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(threadId);
+        AddOnceSet<String> presized = new AddOnceSet<>(n);
+        presized.addAll(elements);
+        long allocatedSet = bean.getThreadAllocatedBytes(threadId) - before;
+        before = bean.getThreadAllocatedBytes(threadId);
+        Map<String, String> map = new LinkedHashMap<>(n * 4 / 3 + 1);
+        for (String e : elements) map.put(e, e);
+        long allocatedMap = bean.getThreadAllocatedBytes(threadId) - before;
+        assertEquals(n, presized.size());
+        assertEquals(n, map.size());
+        assertTrue(allocatedSet * 2 < allocatedMap, "Set " + allocatedSet + ", map " + allocatedMap);
+    }
+
+    // reads which race freeze() find the elements either in the build-phase table or in the frozen one
+    @Test
+    public void test6() throws InterruptedException {
+        for (int round = 0; round < 200; round++) {
+            AddOnceSet<Integer> set = new AddOnceSet<>();
+            for (int i = 0; i < 100; i++) set.add(i);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            CountDownLatch started = new CountDownLatch(1);
+            Thread reader = new Thread(() -> {
+                try {
+                    started.countDown();
+                    int extra = 1000;
+                    while (!set.isFrozen() || extra-- > 0) {
+                        if (!set.contains(42) || set.size() != 100) throw new AssertionError("Lost elements");
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            reader.start();
+            started.await();
+            set.freeze();
+            reader.join();
+            assertNull(failure.get());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestAsyncLazy {
+
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    private void runTasks() {
+        List<Runnable> copy = new ArrayList<>(tasks);
+        tasks.clear();
+        copy.forEach(Runnable::run);
+    }
+
+    @Test
+    public void test1() {
+        AtomicInteger counter = new AtomicInteger();
+        AsyncLazy<String> lazy = new AsyncLazy<>(() -> {
+            counter.incrementAndGet();
+            return "abc";
+        }, tasks::add);
+        assertFalse(lazy.hasBeenEvaluated());
+        assertNull(lazy.getIfReady());
+        assertNull(lazy.getIfReady());
+        CompletableFuture<String> future = lazy.future();
+        assertFalse(future.isDone());
+        assertEquals(1, tasks.size());
+
+        runTasks();
+        assertTrue(future.isDone());
+        assertEquals("abc", future.join());
+        assertEquals("abc", lazy.getIfReady());
+        assertEquals("abc", lazy.get());
+        assertTrue(lazy.hasBeenEvaluated());
+        assertEquals(1, counter.get());
+        assertTrue(tasks.isEmpty());
+
+        // completing a copy has no effect
+        AsyncLazy<String> other = new AsyncLazy<>(() -> "xyz", tasks::add);
+        other.future().complete("wrong");
+        runTasks();
+        assertEquals("xyz", other.get());
+    }
+
+    // a failing evaluation is reported to the waiting parties, and the next request tries again
+    @Test
+    public void test2() {
+        AtomicInteger counter = new AtomicInteger();
+        AsyncLazy<String> lazy = new AsyncLazy<>(() -> {
+            if (counter.incrementAndGet() == 1) throw new UnsupportedOperationException();
+            return "abc";
+        }, tasks::add);
+        CompletableFuture<String> future = lazy.future();
+        runTasks();
+        assertTrue(future.isCompletedExceptionally());
+        assertFalse(lazy.hasBeenEvaluated());
+
+        assertNull(lazy.getIfReady());
+        runTasks();
+        assertEquals("abc", lazy.getIfReady());
+        assertEquals(2, counter.get());
+
+        AsyncLazy<String> rejected = new AsyncLazy<>(() -> "abc", r -> {
+            throw new RejectedExecutionException();
+        });
+        try {
+            rejected.get();
+            fail();
+        } catch (RejectedExecutionException e) {
+            // normal behaviour
+        }
+    }
+
+    // many threads, one evaluation on the executor
+    @Test
+    public void test3() throws Exception {
+        int threads = 8;
+        ExecutorService callers = Executors.newFixedThreadPool(threads);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AtomicInteger counter = new AtomicInteger();
+            AsyncLazy<Object> lazy = new AsyncLazy<>(() -> {
+                counter.incrementAndGet();
+                return new Object();
+            }, executor);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Object>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(callers.submit(() -> {
+                    start.await();
+                    return lazy.get();
+                }));
+            }
+            start.countDown();
+            Object first = futures.get(0).get();
+            for (Future<Object> future : futures) assertSame(first, future.get());
+            assertEquals(1, counter.get());
+        } finally {
+            callers.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void test4() {
+        try {
+            new AsyncLazy<String>(null, Runnable::run);
+            fail();
+        } catch (NullPointerException e) {
+            // normal behaviour
+        }
+        AsyncLazy<String> lazy = new AsyncLazy<>(() -> null, Runnable::run);
+        try {
+            lazy.get();
+            fail();
+        } catch (NullPointerException e) {
+            // normal behaviour
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestBinaryCodec {
+
+    @Test
+    public void test1() throws IOException {
+        SetOnceMap<String, Long> map = new SetOnceMap<>();
+        for (int i = 0; i < 100; i++) map.put("key" + (99 - i), (long) i * i);
+        try {
+            BinaryCodec.writeMap(map, Codec.STRING, Codec.LONG, new DataOutputStream(new ByteArrayOutputStream()));
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        map.freeze();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryCodec.writeMap(map, Codec.STRING, Codec.LONG, new DataOutputStream(bytes));
+        SetOnceMap<String, Long> read = BinaryCodec.readMap(Codec.STRING, Codec.LONG,
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertTrue(read.isFrozen());
+        assertEquals(100, read.size());
+        assertEquals((Long) 9801L, read.get("key0"));
+        assertEquals(map.toImmutableMap(), read.toImmutableMap());
+        assertEquals(map.keyStream().collect(Collectors.toList()), read.keyStream().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void test2() throws IOException {
+        AddOnceSet<Integer> set = new AddOnceSet<>();
+        set.addAll(List.of(5, 3, 8, 1));
+        set.freeze();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryCodec.writeSet(set, Codec.INTEGER, new DataOutputStream(bytes));
+        AddOnceSet<Integer> read = BinaryCodec.readSet(Codec.INTEGER,
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertTrue(read.isFrozen());
+        assertTrue(read.contains(8));
+        assertFalse(read.contains(2));
+        assertEquals(List.of(5, 3, 8, 1), read.stream().collect(Collectors.toList()));
+
+        // a map cannot be read as a set
+        try {
+            BinaryCodec.readMap(Codec.INTEGER, Codec.INTEGER,
+                    new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            fail();
+        } catch (IOException e) {
+            // normal behaviour
+        }
+    }
+
+    @Test
+    public void test3() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(BinaryCodec.SET_MAGIC);
+        out.writeInt(3);
+        out.writeInt(1);
+        out.writeInt(2);
+        out.writeInt(1);
+        try {
+            BinaryCodec.readSet(Codec.INTEGER, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            fail();
+        } catch (IOException e) {
+            // normal behaviour: duplicate element
+        }
+        try {
+            BinaryCodec.readSet(Codec.INTEGER, new DataInputStream(new ByteArrayInputStream(new byte[6])));
+            fail();
+        } catch (IOException e) {
+            // normal behaviour
+        }
+    }
+
+    // the size in the header is checked, and does not decide the allocation
+    @Test
+    public void test4() throws IOException {
+        for (int n : new int[]{-1, BinaryCodec.MAX_SIZE + 1, Integer.MAX_VALUE}) {
+            try {
+                BinaryCodec.readMap(Codec.INTEGER, Codec.INTEGER, input(BinaryCodec.MAP_MAGIC, n, 1, 2));
+                fail();
+            } catch (IOException e) {
+                assertFalse(e instanceof EOFException, "Have " + e);
+            }
+        }
+        try {
+            BinaryCodec.readSet(Codec.INTEGER, input(BinaryCodec.SET_MAGIC, BinaryCodec.MAX_SIZE, 1, 2));
+            fail();
+        } catch (EOFException e) {
+            // normal behaviour: no huge array was allocated for the missing elements
+        }
+
+        int[] ints = new int[2 + 10_000];
+        ints[0] = BinaryCodec.SET_MAGIC;
+        ints[1] = 10_000;
+        for (int i = 0; i < 10_000; i++) ints[i + 2] = i;
+        AddOnceSet<Integer> read = BinaryCodec.readSet(Codec.INTEGER, input(ints));
+        assertEquals(10_000, read.size());
+        assertTrue(read.contains(9_999));
+    }
+
+    private static DataInput input(int... ints) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i : ints) out.writeInt(i);
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestConcurrentLazy {
+
+    @Test
+    public void test1() {
+        AtomicInteger counter = new AtomicInteger();
+        ConcurrentLazy<String> lazy = new ConcurrentLazy<>(() -> {
+            counter.getAndIncrement();
+            return "abc";
+        });
+        assertFalse(lazy.hasBeenEvaluated());
+        assertEquals("abc", lazy.get());
+        assertEquals("abc", lazy.get());
+        assertEquals(1, counter.get());
+        assertTrue(lazy.hasBeenEvaluated());
+    }
+
+    @Test
+    public void test2() {
+        try {
+            new ConcurrentLazy<String>(null);
+            fail();
+        } catch (NullPointerException e) {
+            // normal behaviour
+        }
+        ConcurrentLazy<String> lazy = new ConcurrentLazy<>(() -> null);
+        try {
+            lazy.get();
+            fail();
+        } catch (NullPointerException e) {
+            // normal behaviour
+        }
+        assertFalse(lazy.hasBeenEvaluated());
+    }
+
+    // many threads, released at the same time: exactly one evaluation, everyone sees the same value
+    @Test
+    public void test3() throws Exception {
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < 50; round++) {
+                AtomicInteger counter = new AtomicInteger();
+                ConcurrentLazy<Object> lazy = new ConcurrentLazy<>(() -> {
+                    counter.getAndIncrement();
+                    Thread.yield();
+                    return new Object();
+                });
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<Object>> futures = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    futures.add(executor.submit(() -> {
+                        start.await();
+                        return lazy.get();
+                    }));
+                }
+                start.countDown();
+                Object first = futures.get(0).get();
+                for (Future<Object> future : futures) assertSame(first, future.get());
+                assertEquals(1, counter.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // a failing supplier leaves the object unevaluated; the next call tries again
+    @Test
+    public void test4() {
+        AtomicInteger counter = new AtomicInteger();
+        ConcurrentLazy<String> lazy = new ConcurrentLazy<>(() -> {
+            if (counter.getAndIncrement() == 0) throw new UnsupportedOperationException();
+            return "abc";
+        });
+        try {
+            lazy.get();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // normal behaviour
+        }
+        assertFalse(lazy.hasBeenEvaluated());
+        assertEquals("abc", lazy.get());
+        assertEquals(2, counter.get());
+    }
+
+    @Test
+    public void test5() {
+        AtomicReference<ConcurrentLazy<String>> ref = new AtomicReference<>();
+        ConcurrentLazy<String> lazy = new ConcurrentLazy<>(() -> ref.get().get());
+        ref.set(lazy);
+        try {
+            lazy.get();
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+    }
+
+    // after evaluation, the supplier, and whatever it captured, can be collected
+    @Test
+    public void test6() throws InterruptedException {
+        AtomicReference<WeakReference<int[]>> weak = new AtomicReference<>();
+        ConcurrentLazy<Integer> lazy = capturing(weak);
+        assertEquals((Integer) 1000, lazy.get());
+        for (int i = 0; i < 20 && weak.get().get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(weak.get().get());
+    }
+
+    private static ConcurrentLazy<Integer> capturing(AtomicReference<WeakReference<int[]>> weak) {
+        int[] captured = new int[1000];
+        weak.set(new WeakReference<>(captured));
+        return new ConcurrentLazy<>(() -> captured.length);
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestConcurrentSetOnceMap {
+
+    @Test
+    public void test1() {
+        ConcurrentSetOnceMap<String, Integer> map = new ConcurrentSetOnceMap<>();
+        map.put("a", 1);
+        assertEquals((Integer) 1, map.get("a"));
+        assertTrue(map.isSet("a"));
+        assertFalse(map.isSet(null));
+        try {
+            map.put("a", 2);
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        try {
+            map.put("b", null);
+            fail();
+        } catch (NullPointerException e) {
+            // normal behaviour
+        }
+        try {
+            map.getOrCreate("c", k -> null);
+            fail();
+        } catch (NullPointerException e) {
+            // normal behaviour
+        }
+        assertFalse(map.isSet("c"));
+        map.freeze();
+        assertEquals((Integer) 1, map.get("a"));
+        assertEquals(1, map.size());
+        try {
+            map.put("b", 2);
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+    }
+
+    @Test
+    public void test2() throws Exception {
+        ConcurrentSetOnceMap<Integer, String> map = new ConcurrentSetOnceMap<>();
+        AtomicInteger calls = new AtomicInteger();
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < 1000; i++) {
+                    map.getOrCreate(i, k -> {
+                        calls.incrementAndGet();
+                        return "v" + k;
+                    });
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) future.get();
+        executor.shutdown();
+        assertEquals(1000, calls.get());
+        assertEquals(1000, map.size());
+        assertEquals("v500", map.get(500));
+    }
+
+    @Test
+    public void test3() throws Exception {
+        ConcurrentSetOnceMap<Integer, Integer> map = new ConcurrentSetOnceMap<>();
+        AtomicInteger accepted = new AtomicInteger();
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t * 1_000_000;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 1_000_000; i++) {
+                    try {
+                        map.put(offset + i, i);
+                        accepted.incrementAndGet();
+                    } catch (IllegalStateException e) {
+                        return null;
+                    }
+                }
+                return null;
+            }));
+        }
+        Thread.sleep(20);
+        map.freeze();
+        for (Future<?> future : futures) future.get();
+        executor.shutdown();
+        // no write may be lost or sneak in after freezing
+        assertEquals(accepted.get(), map.size());
+        assertEquals(accepted.get(), (int) map.keyStream().count());
+    }
+
+    @Test
+    public void test4() throws Exception {
+        ConcurrentSetOnceMap<String, Integer> map = new ConcurrentSetOnceMap<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(map.getOrCreateAsync("key", k -> {
+                    calls.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return k.length();
+                }, executor));
+            }
+            // all concurrent requests share the future of the first one
+            for (CompletableFuture<Integer> f : futures) assertSame(futures.get(0), f);
+            assertFalse(map.isSet("key"));
+            release.countDown();
+            assertEquals(3, (int) futures.get(0).get(10, TimeUnit.SECONDS));
+            assertEquals(1, calls.get());
+            assertEquals(3, (int) map.get("key"));
+            CompletableFuture<Integer> done = map.getOrCreateAsync("key", k -> 0, executor);
+            assertTrue(done.isDone());
+            assertEquals(3, (int) done.get());
+
+            // failure is not remembered
+            CompletableFuture<Integer> failed = map.getOrCreateAsync("bad", k -> {
+                throw new UnsupportedOperationException();
+            }, executor);
+            try {
+                failed.get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                // normal behaviour
+            }
+            assertEquals(7, (int) map.getOrCreateAsync("bad", k -> 7, executor).get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void test5() throws Exception {
+        ConcurrentSetOnceMap<Integer, String> map = new ConcurrentSetOnceMap<>();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(map.getOrCreateAsync(i, k -> {
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return "v" + k;
+                }, executor));
+            }
+            // freezing waits for the computations in progress
+            map.freeze();
+            assertEquals(100, map.size());
+            for (CompletableFuture<String> f : futures) assertTrue(f.isDone());
+            assertEquals("v42", map.getOrCreateAsync(42, k -> "x", executor).get());
+            try {
+                map.getOrCreateAsync(100, k -> "x", executor);
+                fail();
+            } catch (IllegalStateException e) {
+                // normal behaviour
+            }
+        } finally {
+            executor.shutdown();
+        }
+        CompletableFuture<String> rejected = new ConcurrentSetOnceMap<Integer, String>()
+                .getOrCreateAsync(1, k -> "x", executor);
+        assertTrue(rejected.isCompletedExceptionally());
+    }
+
+    // freeze() waits for a slow generator without spinning, and refuses to be called from within a generator
+    @Test
+    public void test6() throws Exception {
+        ConcurrentSetOnceMap<String, Integer> map = new ConcurrentSetOnceMap<>();
+        try {
+            map.getOrCreate("a", k -> {
+                map.freeze();
+                return 1;
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        assertFalse(map.isFrozen());
+
+        CountDownLatch inGenerator = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> writer = executor.submit(() -> map.getOrCreate("b", k -> {
+                inGenerator.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return 2;
+            }));
+            inGenerator.await();
+            Future<?> freezing = executor.submit(map::freeze);
+            Thread.sleep(50);
+            assertFalse(freezing.isDone());
+            release.countDown();
+            freezing.get(10, TimeUnit.SECONDS);
+            assertEquals((Integer) 2, writer.get());
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(map.isFrozen());
+        assertEquals((Integer) 2, map.get("b"));
+    }
+
+    // a synchronous request joins the asynchronous computation of the same key
+    @Test
+    public void test7() throws Exception {
+        ConcurrentSetOnceMap<String, Integer> map = new ConcurrentSetOnceMap<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CompletableFuture<Integer> future = map.getOrCreateAsync("a", k -> {
+                calls.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return 1;
+            }, executor);
+            Future<Integer> sync = executor.submit(() -> map.getOrCreate("a", k -> {
+                calls.incrementAndGet();
+                return 2;
+            }));
+            Thread.sleep(50);
+            assertFalse(sync.isDone());
+            release.countDown();
+            assertEquals((Integer) 1, sync.get(10, TimeUnit.SECONDS));
+            assertEquals((Integer) 1, future.get());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, calls.get());
+
+        // a failed computation is not joined: the generator runs
+        CompletableFuture<Integer> failed = new CompletableFuture<>();
+        map.getOrCreateAsync("b", k -> {
+            throw new UnsupportedOperationException();
+        }, Runnable::run).whenComplete((v, t) -> failed.complete(0));
+        failed.get();
+        assertEquals((Integer) 3, map.getOrCreate("b", k -> 3));
+    }
+}
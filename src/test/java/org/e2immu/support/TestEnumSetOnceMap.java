@@ -0,0 +1,72 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestEnumSetOnceMap {
+
+    @Test
+    public void test1() {
+        EnumSetOnceMap<TimeUnit, String> map = new EnumSetOnceMap<>(TimeUnit.class);
+        map.put(TimeUnit.SECONDS, "s");
+        map.put(TimeUnit.DAYS, "d");
+        assertEquals("ms", map.getOrCreate(TimeUnit.MILLISECONDS, u -> "ms"));
+        try {
+            map.put(TimeUnit.DAYS, "d");
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        map.freeze();
+        assertEquals(3, map.size());
+        assertEquals("s", map.get(TimeUnit.SECONDS));
+        assertFalse(map.isSet(TimeUnit.HOURS));
+        assertEquals(List.of(TimeUnit.MILLISECONDS, TimeUnit.SECONDS, TimeUnit.DAYS),
+                map.keyStream().collect(Collectors.toList()));
+        try {
+            map.put(TimeUnit.HOURS, "h");
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+    }
+
+    // a re-entrant generator which puts the key it is generating for
+    @Test
+    public void test2() {
+        EnumSetOnceMap<TimeUnit, String> map = new EnumSetOnceMap<>(TimeUnit.class);
+        assertEquals("ms+s", map.getOrCreate(TimeUnit.MILLISECONDS,
+                k -> "ms+" + map.getOrCreate(TimeUnit.SECONDS, k2 -> "s")));
+        assertEquals(2, map.size());
+        try {
+            map.getOrCreate(TimeUnit.DAYS, k -> {
+                map.put(TimeUnit.DAYS, "inner");
+                return "outer";
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        assertEquals("inner", map.get(TimeUnit.DAYS));
+        assertEquals(3, map.size());
+    }
+}
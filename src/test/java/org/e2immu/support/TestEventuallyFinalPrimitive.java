@@ -0,0 +1,73 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestEventuallyFinalPrimitive {
+
+    @Test
+    public void test1() {
+        EventuallyFinalInt e = new EventuallyFinalInt();
+        assertEquals(0, e.get());
+        assertTrue(e.isVariable());
+        e.setVariable(3);
+        assertEquals(3, e.get());
+        e.setVariable(4);
+        assertEquals(4, e.get());
+        assertFalse(e.isFinal());
+
+        e.setFinal(5);
+        assertTrue(e.isFinal());
+        assertEquals(5, e.get());
+        try {
+            e.setFinal(5);
+            fail();
+        } catch (IllegalStateException r) {
+            // normal behaviour
+        }
+        try {
+            e.setVariable(6);
+            fail();
+        } catch (IllegalStateException r) {
+            // normal behaviour
+        }
+        assertEquals(5, e.get());
+    }
+
+    @Test
+    public void test2() {
+        EventuallyFinalLong l = new EventuallyFinalLong();
+        l.setVariable(1L);
+        l.setFinal(2L);
+        assertEquals(2L, l.get());
+
+        EventuallyFinalDouble d = new EventuallyFinalDouble();
+        d.setVariable(0.5);
+        assertEquals(0.5, d.get());
+        d.setFinal(1.5);
+        assertEquals(1.5, d.get());
+
+        EventuallyFinalBoolean b = new EventuallyFinalBoolean();
+        assertFalse(b.get());
+        b.setVariable(true);
+        assertTrue(b.get());
+        b.setFinal(false);
+        assertFalse(b.get());
+        assertTrue(b.isFinal());
+    }
+}
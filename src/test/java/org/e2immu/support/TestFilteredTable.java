@@ -0,0 +1,91 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestFilteredTable {
+
+    @Test
+    public void test1() {
+        int n = 10_000;
+        AddOnceSet<String> set = new AddOnceSet<>(n);
+        for (int i = 0; i < n; i++) set.add("e" + i);
+        set.freeze(FreezeOptions.DEFAULT.withBloomFilter(0.01).withFilterStatistics());
+
+        for (int i = 0; i < n; i++) assertTrue(set.contains("e" + i));
+        FilterStatistics s1 = set.filterStatistics();
+        assertNotNull(s1);
+        assertTrue(s1.isCounted());
+        assertEquals(n, s1.getPassed());
+        assertEquals(0, s1.getRejected());
+        assertEquals(0, s1.getFalsePositives());
+
+        int absent = 100_000;
+        for (int i = 0; i < absent; i++) assertFalse(set.contains("x" + i));
+        FilterStatistics s2 = set.filterStatistics();
+        assertEquals(absent, s2.getRejected() + s2.getFalsePositives());
+        assertTrue(s2.getFalsePositiveRate() < 0.03, "Have " + s2);
+        assertTrue(s2.getBits() < 12L * n, "Have " + s2);
+        assertEquals(7, s2.getHashFunctions());
+    }
+
+    @Test
+    public void test2() {
+        SetOnceMap<Integer, String> map = new SetOnceMap<>();
+        for (int i = 0; i < 100; i++) map.put(i, "v" + i);
+        assertNull(map.filterStatistics());
+        map.freeze(FreezeOptions.DEFAULT.withPerfectHash().withBloomFilter(0.001).withFilterStatistics());
+        assertEquals("v42", map.get(42));
+        assertFalse(map.isSet(142));
+        assertNull(map.getOrDefaultNull(null));
+        assertTrue(map.toImmutableMap().containsKey(7));
+        assertEquals(List.of(0, 1, 2), map.keyStream().limit(3).collect(Collectors.toList()));
+        FilterStatistics statistics = map.filterStatistics();
+        assertEquals(2, statistics.getPassed() - statistics.getFalsePositives());
+        assertEquals(1, statistics.getRejected() + statistics.getFalsePositives());
+
+        SetOnceMap<Integer, String> plain = new SetOnceMap<>();
+        plain.freeze();
+        assertNull(plain.filterStatistics());
+        try {
+            FreezeOptions.DEFAULT.withBloomFilter(1.0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // normal behaviour
+        }
+    }
+
+    // by default, lookups do not count
+    @Test
+    public void test3() {
+        AddOnceSet<String> set = new AddOnceSet<>();
+        for (int i = 0; i < 1000; i++) set.add("e" + i);
+        set.freeze(FreezeOptions.DEFAULT.withBloomFilter(0.01));
+        for (int i = 0; i < 1000; i++) assertTrue(set.contains("e" + i));
+        for (int i = 0; i < 1000; i++) assertFalse(set.contains("x" + i));
+        FilterStatistics statistics = set.filterStatistics();
+        assertNotNull(statistics);
+        assertFalse(statistics.isCounted());
+        assertEquals(0, statistics.getPassed());
+        assertEquals(0, statistics.getRejected());
+        assertTrue(statistics.getBits() > 0);
+    }
+}
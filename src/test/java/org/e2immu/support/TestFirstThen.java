@@ -17,6 +17,14 @@ package org.e2immu.support;
 
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class TestFirstThen {
@@ -55,4 +63,30 @@ public class TestFirstThen {
         b.set(34);
         assertEquals(b, a);
     }
+
+    @Test
+    public void test2() throws Exception {
+        FirstThen<String, Integer> firstThen = new FirstThen<>("first");
+        List<Integer> heard = new ArrayList<>();
+        firstThen.onSet(heard::add);
+        CompletableFuture<Integer> view = firstThen.toCompletionStage().toCompletableFuture();
+        assertNull(firstThen.await(Duration.ofMillis(1)));
+        assertTrue(heard.isEmpty());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> waiting = executor.submit(() -> firstThen.await());
+            firstThen.set(3);
+            assertEquals((Integer) 3, waiting.get());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals("[3]", heard.toString());
+        assertEquals((Integer) 3, view.join());
+        assertEquals((Integer) 3, firstThen.await());
+
+        // late listeners run immediately, on the calling thread
+        firstThen.onSet(heard::add);
+        assertEquals("[3, 3]", heard.toString());
+    }
 }
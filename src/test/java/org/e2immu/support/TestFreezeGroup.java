@@ -0,0 +1,206 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestFreezeGroup {
+
+    @Test
+    public void test1() {
+        FreezeGroup group = new FreezeGroup();
+        SetOnceMap<String, Integer> map = group.add(new SetOnceMap<>());
+        AddOnceSet<String> set = group.add(new AddOnceSet<>());
+        IntSetOnceMap<String> intMap = group.add(new IntSetOnceMap<>());
+        map.put("a", 1);
+        set.add("b");
+        intMap.put(3, "c");
+        assertEquals(3, group.size());
+        try {
+            new FreezeGroup().add(map);
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour: already in a group
+        }
+
+        group.freeze();
+        assertTrue(group.isFrozen());
+        assertTrue(map.isFrozen());
+        assertTrue(set.isFrozen());
+        assertTrue(intMap.isFrozen());
+        assertEquals(1, (int) map.get("a"));
+        assertTrue(set.contains("b"));
+        assertEquals("c", intMap.get(3));
+        try {
+            map.put("x", 2);
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        try {
+            group.freeze();
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        try {
+            group.add(new AddOnceSet<>());
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+    }
+
+    @Test
+    public void test2() {
+        FreezeGroup group = new FreezeGroup();
+        List<AddOnceSet<Integer>> sets = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            AddOnceSet<Integer> set = group.add(new AddOnceSet<>());
+            for (int j = 0; j < 10; j++) set.add(i * 10 + j);
+            sets.add(set);
+        }
+        // frozen on its own: leaves the group
+        sets.get(5).freeze();
+        assertTrue(sets.get(5).isFrozen());
+        assertFalse(sets.get(6).isFrozen());
+
+        group.freeze(true);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(sets.get(i).isFrozen());
+            assertTrue(sets.get(i).contains(i * 10 + 9));
+        }
+    }
+
+    @Test
+    public void test3() {
+        FreezeGroup group = new FreezeGroup();
+        SetOnceMap<String, AddOnceSet<String>> outer = group.add(new SetOnceMap<>());
+        AddOnceSet<String> shared = new AddOnceSet<>();
+        shared.add("s");
+        AddOnceSet<String> member = group.add(new AddOnceSet<>());
+        AddOnceSet<String> alreadyFrozen = new AddOnceSet<>();
+        alreadyFrozen.freeze();
+        for (int i = 0; i < 100; i++) {
+            AddOnceSet<String> inner = new AddOnceSet<>();
+            inner.add("i" + i);
+            outer.put("k" + i, inner);
+        }
+        outer.put("shared1", shared);
+        outer.put("shared2", shared);
+        outer.put("member", member);
+        outer.put("frozen", alreadyFrozen);
+
+        group.freezeDeep(true);
+        for (int i = 0; i < 100; i++) {
+            AddOnceSet<String> inner = outer.get("k" + i);
+            assertTrue(inner.isFrozen());
+            assertTrue(inner.contains("i" + i));
+        }
+        assertTrue(shared.isFrozen());
+        assertTrue(member.isFrozen());
+        assertTrue(alreadyFrozen.isFrozen());
+        // nested containers joined the group
+        try {
+            new FreezeGroup().add(new AddOnceSet<>()).freeze();
+            group.add(shared);
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+
+        SetOnceMap<String, AddOnceSet<String>> shallowOuter = new SetOnceMap<>();
+        AddOnceSet<String> notFrozen = new AddOnceSet<>();
+        shallowOuter.put("x", notFrozen);
+        FreezeGroup shallow = new FreezeGroup();
+        shallow.add(shallowOuter);
+        shallow.freeze();
+        assertTrue(shallowOuter.isFrozen());
+        assertFalse(notFrozen.isFrozen());
+    }
+
+    // while the group is being frozen, members cannot be modified or frozen by other code
+    @Test
+    public void test5() {
+        FreezeGroup group = new FreezeGroup();
+        SetOnceMap<String, Integer> map = group.add(new SetOnceMap<>());
+        map.put("a", 1);
+        List<Throwable> caught = new ArrayList<>();
+        group.add(new Freezable() {
+            @Override
+            public void freeze() {
+                try {
+                    map.put("b", 2);
+                } catch (RuntimeException e) {
+                    caught.add(e);
+                }
+                try {
+                    map.freeze();
+                } catch (RuntimeException e) {
+                    caught.add(e);
+                }
+                super.freeze();
+            }
+        });
+        group.freeze();
+        assertEquals(2, caught.size());
+        for (Throwable t : caught) assertTrue(t instanceof IllegalStateException, "Have " + t);
+        assertTrue(map.isFrozen());
+        assertEquals(1, map.size());
+    }
+
+    // a failing member resets the group; it can be frozen again
+    @Test
+    public void test6() {
+        FreezeGroup group = new FreezeGroup();
+        SetOnceMap<String, Integer> map = group.add(new SetOnceMap<>());
+        map.put("a", 1);
+        AtomicBoolean fail = new AtomicBoolean(true);
+        Freezable failing = group.add(new Freezable() {
+            @Override
+            public void freeze() {
+                if (fail.get()) throw new UnsupportedOperationException();
+                super.freeze();
+            }
+        });
+        AddOnceSet<String> set = group.add(new AddOnceSet<>());
+        try {
+            group.freeze();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // normal behaviour
+        }
+        assertFalse(group.isFrozen());
+        // the map had been frozen, and has left the group
+        assertTrue(map.isFrozen());
+        assertEquals(1, (int) map.get("a"));
+        assertEquals(2, group.size());
+        assertFalse(failing.isFrozen());
+        set.add("x");
+
+        fail.set(false);
+        group.freeze();
+        assertTrue(group.isFrozen());
+        assertTrue(failing.isFrozen());
+        assertTrue(set.isFrozen());
+        assertTrue(set.contains("x"));
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestIntAddOnceSet {
+
+    @Test
+    public void test1() {
+        IntAddOnceSet set = new IntAddOnceSet();
+        assertFalse(set.contains(0));
+        set.add(0);
+        for (int i = 1; i < 10_000; i++) set.add(i * 31);
+        assertEquals(10_000, set.size());
+        try {
+            set.add(31);
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        set.freeze();
+        assertTrue(set.contains(0));
+        for (int i = 1; i < 10_000; i++) {
+            assertTrue(set.contains(i * 31));
+            assertFalse(set.contains(i * 31 + 1));
+        }
+        assertEquals(10_000, set.stream().count());
+        assertEquals(10_000 * 9_999 / 2 * 31, set.stream().sum());
+        try {
+            set.add(1);
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestIntSetOnceMap {
+
+    @Test
+    public void test1() {
+        IntSetOnceMap<String> map = new IntSetOnceMap<>();
+        for (int i = -500; i < 500; i++) map.put(i * 7, "v" + i);
+        assertEquals(1000, map.size());
+        try {
+            map.put(0, "x");
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        assertEquals("v3", map.getOrCreate(21, k -> "new"));
+        assertEquals("new", map.getOrCreate(22, k -> "new"));
+        map.freeze();
+        for (int i = -500; i < 500; i++) assertEquals("v" + i, map.get(i * 7));
+        assertFalse(map.isSet(1));
+        assertNull(map.getOrDefaultNull(1));
+        assertEquals("d", map.getOrDefault(1, "d"));
+        assertEquals(1001, map.keyStream().count());
+        AtomicInteger count = new AtomicInteger();
+        map.forEach((v, k) -> count.incrementAndGet());
+        assertEquals(1001, count.get());
+        try {
+            map.put(1, "x");
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+    }
+
+    @Test
+    public void test2() {
+        LongSetOnceMap<String> map = new LongSetOnceMap<>();
+        map.put(1L << 40, "a");
+        map.put(1L, "b");
+        map.freeze();
+        assertEquals("a", map.get(1L << 40));
+        assertEquals("b", map.get(1L));
+        assertFalse(map.isSet(0L));
+        assertEquals(2, map.valueStream().count());
+    }
+
+    // re-entrant generators: the table is rehashed while the outer generator runs
+    @Test
+    public void test3() {
+        IntSetOnceMap<Long> map = new IntSetOnceMap<>();
+        assertEquals((Long) 12586269025L, fibonacci(map, 50));
+        assertEquals(51, map.size());
+        for (int i = 2; i <= 50; i++) assertEquals((Long) (map.get(i - 1) + map.get(i - 2)), map.get(i));
+        assertEquals(51, map.keyStream().count());
+
+        IntSetOnceMap<String> other = new IntSetOnceMap<>();
+        try {
+            other.getOrCreate(1, k -> {
+                other.put(1, "inner");
+                return "outer";
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        assertEquals("inner", other.get(1));
+        assertEquals(1, other.size());
+
+        LongSetOnceMap<Long> longMap = new LongSetOnceMap<>();
+        assertEquals((Long) 12586269025L, fibonacci(longMap, 50L));
+        assertEquals(51, longMap.size());
+        for (long i = 2; i <= 50; i++) {
+            assertEquals((Long) (longMap.get(i - 1) + longMap.get(i - 2)), longMap.get(i));
+        }
+    }
+
+    private static Long fibonacci(IntSetOnceMap<Long> map, int n) {
+        return map.getOrCreate(n, k -> k < 2 ? (long) k : fibonacci(map, k - 1) + fibonacci(map, k - 2));
+    }
+
+    private static Long fibonacci(LongSetOnceMap<Long> map, long n) {
+        return map.getOrCreate(n, k -> k < 2 ? k : fibonacci(map, k - 1) + fibonacci(map, k - 2));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestInternPool {
+
+    @Test
+    public void test1() {
+        InternPool<String> pool = new InternPool<>();
+        String a = new String("abc");
+        String b = new String("abc");
+        assertNull(pool.getOrDefaultNull(a));
+        assertSame(a, pool.intern(a));
+        assertSame(a, pool.intern(b));
+        assertSame(a, pool.getOrDefaultNull(b));
+        assertTrue(pool.contains("abc"));
+        assertFalse(pool.contains("xyz"));
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void test2() throws Exception {
+        InternPool<String> pool = new InternPool<>(true, 4);
+        assertTrue(pool.isWeak());
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String[]>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                String[] result = new String[1000];
+                for (int i = 0; i < 1000; i++) result[i] = pool.intern(new String("s" + i));
+                return result;
+            }));
+        }
+        start.countDown();
+        String[] first = futures.get(0).get();
+        for (Future<String[]> future : futures) {
+            String[] other = future.get();
+            for (int i = 0; i < 1000; i++) assertSame(first[i], other[i]);
+        }
+        executor.shutdown();
+        assertEquals(1000, pool.size());
+    }
+
+    // in weak mode, a canonical instance which is no longer referenced disappears from the pool
+    @Test
+    public void test3() throws InterruptedException {
+        InternPool<String> pool = new InternPool<>(true, 1);
+        String kept = pool.intern(new String("kept"));
+        pool.intern(new String("released"));
+        assertTrue(pool.contains("released"));
+        assertEquals(2, pool.size());
+        for (int i = 0; i < 20 && pool.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, pool.size());
+        assertFalse(pool.contains("released"));
+        assertSame(kept, pool.intern(new String("kept")));
+
+        // the next equal value becomes the new canonical instance
+        String again = new String("released");
+        assertSame(again, pool.intern(again));
+    }
+}
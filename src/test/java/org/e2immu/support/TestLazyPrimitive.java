@@ -0,0 +1,74 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestLazyPrimitive {
+
+    @Test
+    public void test1() {
+        AtomicInteger counter = new AtomicInteger();
+        LazyInt lazy = new LazyInt(() -> {
+            counter.getAndIncrement();
+            return 0;
+        });
+        assertFalse(lazy.hasBeenEvaluated());
+        assertEquals(0, lazy.get());
+        assertTrue(lazy.hasBeenEvaluated());
+        // zero is a valid value, not a marker: no second evaluation
+        assertEquals(0, lazy.get());
+        assertEquals(1, counter.get());
+    }
+
+    @Test
+    public void test2() {
+        AtomicInteger counter = new AtomicInteger();
+        LazyLong lazyLong = new LazyLong(() -> counter.incrementAndGet() * 10L);
+        assertEquals(10L, lazyLong.get());
+        assertEquals(10L, lazyLong.get());
+        LazyDouble lazyDouble = new LazyDouble(() -> counter.incrementAndGet() / 2.0);
+        assertEquals(1.0, lazyDouble.get());
+        assertEquals(1.0, lazyDouble.get());
+        LazyBoolean lazyBoolean = new LazyBoolean(() -> counter.incrementAndGet() > 100);
+        assertFalse(lazyBoolean.get());
+        assertFalse(lazyBoolean.get());
+        assertEquals(3, counter.get());
+    }
+
+    @Test
+    public void test3() {
+        try {
+            new LazyInt(null);
+            fail();
+        } catch (NullPointerException e) {
+            // normal behaviour
+        }
+        LazyBoolean lazy = new LazyBoolean(() -> {
+            throw new UnsupportedOperationException();
+        });
+        try {
+            lazy.get();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // normal behaviour
+        }
+        assertFalse(lazy.hasBeenEvaluated());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMappedSnapshot {
+
+    @Test
+    public void test1() throws IOException {
+        SetOnceMap<String, String> map = new SetOnceMap<>();
+        for (int i = 0; i < 1000; i++) map.put("key" + i, "value " + i);
+        map.put("\u00df\u20ac", "unicode \u2713");
+        map.put("", "empty key");
+        map.freeze();
+
+        Path path = Files.createTempFile("snapshot", ".bin");
+        try {
+            MappedSnapshot.write(map, path);
+            SetOnceMap<String, String> mapped = MappedSnapshot.open(path);
+            assertTrue(mapped.isFrozen());
+            assertEquals(1002, mapped.size());
+            assertEquals("value 17", mapped.get("key17"));
+            assertEquals("unicode \u2713", mapped.get("\u00df\u20ac"));
+            assertEquals("empty key", mapped.get(""));
+            assertFalse(mapped.isSet("key1000"));
+            assertNull(mapped.getOrDefaultNull("key-1"));
+            assertEquals(map.keyStream().collect(Collectors.toList()), mapped.keyStream().collect(Collectors.toList()));
+            assertEquals(map.toImmutableMap(), mapped.toImmutableMap());
+            assertEquals(List.of("key0", "key1"), mapped.keyStream().limit(2).collect(Collectors.toList()));
+            try {
+                mapped.put("x", "y");
+                fail();
+            } catch (IllegalStateException e) {
+                // normal behaviour
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void test2() throws IOException {
+        SetOnceMap<String, String> map = new SetOnceMap<>();
+        Path path = Files.createTempFile("snapshot", ".bin");
+        try {
+            try {
+                MappedSnapshot.write(map, path);
+                fail();
+            } catch (IllegalStateException e) {
+                // normal behaviour
+            }
+            map.freeze();
+            MappedSnapshot.write(map, path);
+            SetOnceMap<String, String> mapped = MappedSnapshot.open(path);
+            assertTrue(mapped.isEmpty());
+            assertEquals(Map.of(), mapped.toImmutableMap());
+
+            Files.write(path, new byte[]{1, 2, 3, 4, 5});
+            try {
+                MappedSnapshot.open(path);
+                fail();
+            } catch (IOException e) {
+                // normal behaviour
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    // a corrupt header is rejected on open
+    @Test
+    public void test3() throws IOException {
+        SetOnceMap<String, String> map = new SetOnceMap<>();
+        for (int i = 0; i < 10; i++) map.put("key" + i, "value " + i);
+        map.freeze();
+        Path path = Files.createTempFile("snapshot", ".bin");
+        try {
+            MappedSnapshot.write(map, path);
+            byte[] valid = Files.readAllBytes(path);
+            assertEquals("value 3", MappedSnapshot.open(path).get("key3"));
+
+            // number of entries, number of slots, first offset
+            int[][] corruptions = {{4, -1}, {4, Integer.MAX_VALUE}, {4, 9}, {8, 1 << 30}, {8, 24}, {8, 8},
+                    {4 * (MappedTable.HEADER_INTS + 32), 1}};
+            for (int[] corruption : corruptions) {
+                byte[] bytes = valid.clone();
+                ByteBuffer.wrap(bytes).putInt(corruption[0], corruption[1]);
+                Files.write(path, bytes);
+                try {
+                    MappedSnapshot.open(path);
+                    fail();
+                } catch (IOException e) {
+                    // normal behaviour
+                }
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    // writing replaces the file, rather than rewriting it: a mapping of the previous version remains valid
+    @Test
+    public void test4() throws IOException {
+        SetOnceMap<String, String> first = new SetOnceMap<>();
+        for (int i = 0; i < 100; i++) first.put("key" + i, "first " + i);
+        first.freeze();
+        SetOnceMap<String, String> second = new SetOnceMap<>();
+        second.put("other", "second");
+        second.freeze();
+
+        Path directory = Files.createTempDirectory("snapshots");
+        Path path = directory.resolve("snapshot.bin");
+        try {
+            MappedSnapshot.write(first, path);
+            SetOnceMap<String, String> mapped = MappedSnapshot.open(path);
+            MappedSnapshot.write(second, path);
+            assertEquals("first 99", mapped.get("key99"));
+            assertEquals(100, mapped.keyStream().count());
+            assertEquals("second", MappedSnapshot.open(path).get("other"));
+            try (Stream<Path> files = Files.list(directory)) {
+                assertEquals(List.of(path), files.collect(Collectors.toList()));
+            }
+        } finally {
+            Files.deleteIfExists(path);
+            Files.delete(directory);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMemoizer {
+
+    @Test
+    public void test1() {
+        AtomicInteger calls = new AtomicInteger();
+        Memoizer<Integer, String> memoizer = new Memoizer<>(i -> {
+            calls.incrementAndGet();
+            return "v" + i;
+        }, 10);
+        assertEquals("v1", memoizer.apply(1));
+        assertEquals("v1", memoizer.apply(1));
+        assertEquals("v2", memoizer.apply(2));
+        assertEquals(2, calls.get());
+        assertEquals(2, memoizer.size());
+        MemoizerStatistics statistics = memoizer.statistics();
+        assertEquals(1L, statistics.getHits());
+        assertEquals(2L, statistics.getMisses());
+        assertEquals(0L, statistics.getEvictions());
+        try {
+            memoizer.apply(null);
+            fail();
+        } catch (NullPointerException e) {
+            // normal behaviour
+        }
+    }
+
+    // entries which are used repeatedly survive a scan of one-off keys
+    @Test
+    public void test2() {
+        Memoizer<Integer, Integer> memoizer = new Memoizer<>(i -> i * i, 10);
+        for (int i = 0; i < 5; i++) {
+            memoizer.apply(i);
+            memoizer.apply(i);
+        }
+        for (int i = 100; i < 200; i++) memoizer.apply(i);
+        assertEquals(10, memoizer.size());
+        assertEquals(10L, memoizer.weight());
+        for (int i = 0; i < 5; i++) assertTrue(memoizer.isPresent(i));
+        assertFalse(memoizer.isPresent(100));
+        assertTrue(memoizer.isPresent(199));
+        assertEquals(95L, memoizer.statistics().getEvictions());
+    }
+
+    // pinned entries are never evicted, and do not count toward the bound
+    @Test
+    public void test3() {
+        Memoizer<Integer, Integer> memoizer = new Memoizer<>(i -> -i, 3);
+        assertEquals((Integer) (-7), memoizer.pin(7));
+        assertTrue(memoizer.isPinned(7));
+        for (int i = 0; i < 100; i++) memoizer.apply(i);
+        assertTrue(memoizer.isPresent(7));
+        assertEquals(4, memoizer.size());
+        assertEquals(3L, memoizer.weight());
+
+        memoizer.unpin(7);
+        assertFalse(memoizer.isPinned(7));
+        assertEquals(3L, memoizer.weight());
+        assertEquals(3, memoizer.size());
+        // back of the probation segment: an older entry went first
+        assertTrue(memoizer.isPresent(7));
+        assertFalse(memoizer.isPresent(97));
+    }
+
+    @Test
+    public void test4() {
+        Memoizer<String, String> memoizer = new Memoizer<>(s -> s, 100, (k, v) -> v.length());
+        memoizer.apply("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+        memoizer.apply("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+        assertEquals(100L, memoizer.weight());
+        memoizer.apply("c");
+        assertEquals(51L, memoizer.weight());
+        assertEquals(2, memoizer.size());
+        assertEquals(1L, memoizer.statistics().getEvictions());
+    }
+
+    // a failing computation leaves the key absent
+    @Test
+    public void test5() {
+        AtomicInteger calls = new AtomicInteger();
+        Memoizer<Integer, Integer> memoizer = new Memoizer<>(i -> {
+            if (calls.incrementAndGet() == 1) throw new UnsupportedOperationException();
+            return i;
+        }, 10);
+        try {
+            memoizer.apply(1);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // normal behaviour
+        }
+        assertFalse(memoizer.isPresent(1));
+        assertEquals((Integer) 1, memoizer.apply(1));
+
+        AtomicReference<Memoizer<Integer, Integer>> ref = new AtomicReference<>();
+        ref.set(new Memoizer<>(i -> ref.get().apply(i), 10));
+        try {
+            ref.get().apply(1);
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+    }
+
+    // concurrent callers of the same key share one computation
+    @Test
+    public void test6() throws Exception {
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            AtomicInteger calls = new AtomicInteger();
+            Memoizer<Integer, Integer> memoizer = new Memoizer<>(i -> {
+                calls.incrementAndGet();
+                Thread.yield();
+                return i;
+            }, 50);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 20_000; i++) {
+                        int k = i % 40;
+                        assertEquals((Integer) k, memoizer.apply(k));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) future.get();
+            assertEquals(40, calls.get());
+            assertEquals(40, memoizer.size());
+            MemoizerStatistics statistics = memoizer.statistics();
+            assertEquals(40L, statistics.getMisses());
+            assertEquals(threads * 20_000L - 40, statistics.getHits());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // a memoized entry does not keep the thread that computed it alive
+    @Test
+    public void test7() throws InterruptedException {
+        Memoizer<Integer, String> memoizer = new Memoizer<>(i -> "v" + i, 10);
+        Thread computing = new Thread(() -> memoizer.apply(1));
+        WeakReference<Thread> weak = new WeakReference<>(computing);
+        computing.start();
+        computing.join();
+        computing = null;
+        for (int i = 0; i < 20 && weak.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(weak.get());
+        assertTrue(memoizer.isPresent(1));
+        assertEquals("v1", memoizer.apply(1));
+    }
+}
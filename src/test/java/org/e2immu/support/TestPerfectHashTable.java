@@ -0,0 +1,83 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestPerfectHashTable {
+
+    @Test
+    public void test1() {
+        for (int n : new int[]{1, 2, 3, 7, 64, 100, 1000, 12345}) {
+            SetOnceMap<String, Integer> map = new SetOnceMap<>(n);
+            for (int i = 0; i < n; i++) map.put("k" + i, i);
+            map.freeze(FreezeOptions.DEFAULT.withPerfectHash());
+            for (int i = 0; i < n; i++) {
+                assertEquals((Integer) i, map.get("k" + i));
+            }
+            for (int i = n; i < 2 * n; i++) {
+                assertFalse(map.isSet("k" + i));
+            }
+            assertNull(map.getOrDefaultNull(null));
+            assertEquals("k0", map.keyStream().findFirst().orElseThrow());
+            assertEquals(n, map.toImmutableMap().size());
+        }
+    }
+
+    @Test
+    public void test2() {
+        int n = 100_000;
+        Object[] keys = new Object[n];
+        for (int i = 0; i < n; i++) keys[i] = i * 31;
+        PerfectHashTable<Integer, Integer> table = PerfectHashTable.of(keys, keys);
+        assertNotNull(table);
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, table.indexOf(i * 31));
+            assertEquals(-1, table.indexOf(i * 31 + 1));
+        }
+        // 17 bits for the position and 8 for the fingerprint per slot, 8 bits per key for displacements
+        assertTrue(table.indexBits() / n <= 34, "Have " + table.indexBits() / n);
+    }
+
+    @Test
+    public void test3() {
+        // "Aa" and "BB" have the same hash code; fall back to the default representation
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertNull(PerfectHashTable.of(new Object[]{"Aa", "BB"}, new Object[]{"Aa", "BB"}));
+
+        AddOnceSet<String> set = new AddOnceSet<>();
+        set.addAll(List.of("x", "Aa", "BB", "y"));
+        set.freeze(FreezeOptions.DEFAULT.withPerfectHash());
+        assertTrue(set.contains("Aa"));
+        assertTrue(set.contains("BB"));
+        assertFalse(set.contains("z"));
+        assertEquals(List.of("x", "Aa", "BB", "y"), set.stream().collect(Collectors.toList()));
+
+        AddOnceSet<String> empty = new AddOnceSet<>();
+        empty.freeze(FreezeOptions.DEFAULT.withPerfectHash());
+        assertFalse(empty.contains("x"));
+        try {
+            empty.freeze(FreezeOptions.DEFAULT);
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+    }
+}
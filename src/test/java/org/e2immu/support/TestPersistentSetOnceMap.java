@@ -0,0 +1,113 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestPersistentSetOnceMap {
+
+    @Test
+    public void test1() {
+        PersistentSetOnceMap<Integer, String> map = new PersistentSetOnceMap<>();
+        int n = 100_000;
+        for (int i = 0; i < n; i++) map.put(i, "v" + i);
+        try {
+            map.put(17, "x");
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        assertEquals(n, map.size());
+        for (int i = 0; i < n; i++) assertEquals("v" + i, map.get(i));
+        assertNull(map.getOrDefaultNull(n));
+        Set<Integer> keys = map.keyStream().collect(Collectors.toSet());
+        assertEquals(n, keys.size());
+        try {
+            map.fork();
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour: not yet frozen
+        }
+    }
+
+    @Test
+    public void test2() {
+        PersistentSetOnceMap<String, Integer> base = new PersistentSetOnceMap<>();
+        for (int i = 0; i < 1000; i++) base.put("k" + i, i);
+        base.freeze();
+
+        PersistentSetOnceMap<String, Integer> fork1 = base.fork();
+        PersistentSetOnceMap<String, Integer> fork2 = base.fork();
+        assertFalse(fork1.isFrozen());
+        fork1.put("extra", -1);
+        fork2.put("other", -2);
+        try {
+            fork1.put("k5", 5);
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour: inherited keys are set already
+        }
+        assertEquals(1001, fork1.size());
+        assertEquals(-1, (int) fork1.get("extra"));
+        assertFalse(fork1.isSet("other"));
+        assertFalse(fork2.isSet("extra"));
+        assertFalse(base.isSet("extra"));
+        assertEquals(1000, base.size());
+        assertEquals(999, (int) fork2.get("k999"));
+
+        // forks of forks
+        fork1.freeze();
+        PersistentSetOnceMap<String, Integer> grandChild = fork1.fork();
+        grandChild.put("third", -3);
+        assertTrue(grandChild.isSet("extra"));
+        assertTrue(grandChild.isSet("k0"));
+        assertFalse(fork1.isSet("third"));
+        assertEquals(1002, grandChild.toImmutableMap().size());
+    }
+
+    @Test
+    public void test3() {
+        // "Aa" and "BB", "AaAa", "BBBB", "AaBB", "BBAa" share hash codes
+        PersistentSetOnceMap<String, String> map = new PersistentSetOnceMap<>();
+        map.put("Aa", "1");
+        map.put("BB", "2");
+        map.put("C", "3");
+        map.freeze();
+        PersistentSetOnceMap<String, String> fork = map.fork();
+        fork.put("AaAa", "4");
+        fork.put("BBBB", "5");
+        fork.put("AaBB", "6");
+        try {
+            fork.put("BB", "x");
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        assertEquals("2", fork.get("BB"));
+        assertEquals("6", fork.get("AaBB"));
+        assertNull(fork.getOrDefaultNull("BBAa"));
+        Set<String> seen = new HashSet<>();
+        fork.forEach((k, v) -> assertTrue(seen.add(k + v)));
+        assertEquals(Set.of("Aa1", "BB2", "C3", "AaAa4", "BBBB5", "AaBB6"), seen);
+        assertNull(map.getOrDefaultNull("AaAa"));
+        assertEquals(3, map.size());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestRefreshingLazy {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final AtomicInteger counter = new AtomicInteger();
+
+    private RefreshingLazy<Integer> create(Duration expire, Duration refresh) {
+        return new RefreshingLazy<>(counter::incrementAndGet, expire, refresh, tasks::add, clock::get);
+    }
+
+    private void runTasks() {
+        List<Runnable> copy = new ArrayList<>(tasks);
+        tasks.clear();
+        copy.forEach(Runnable::run);
+    }
+
+    @Test
+    public void test1() {
+        RefreshingLazy<Integer> lazy = create(Duration.ofNanos(100), null);
+        assertFalse(lazy.hasBeenEvaluated());
+        assertEquals((Integer) 1, lazy.get());
+        clock.set(99);
+        assertEquals((Integer) 1, lazy.get());
+        clock.set(100);
+        assertEquals((Integer) 2, lazy.get());
+        assertTrue(tasks.isEmpty());
+        lazy.invalidate();
+        assertEquals((Integer) 3, lazy.get());
+    }
+
+    // a stale value is returned while a single refresh is scheduled
+    @Test
+    public void test2() {
+        RefreshingLazy<Integer> lazy = create(null, Duration.ofNanos(10));
+        assertEquals((Integer) 1, lazy.get());
+        clock.set(10);
+        assertEquals((Integer) 1, lazy.get());
+        assertEquals((Integer) 1, lazy.get());
+        assertTrue(lazy.isRefreshing());
+        assertEquals(1, tasks.size());
+        runTasks();
+        assertFalse(lazy.isRefreshing());
+        assertEquals((Integer) 2, lazy.get());
+        assertTrue(tasks.isEmpty());
+    }
+
+    // the combination of both: refresh first, expire when the refresh does not arrive in time
+    @Test
+    public void test3() {
+        RefreshingLazy<Integer> lazy = create(Duration.ofNanos(100), Duration.ofNanos(10));
+        assertEquals((Integer) 1, lazy.get());
+        clock.set(50);
+        assertEquals((Integer) 1, lazy.get());
+        assertEquals(1, tasks.size());
+        clock.set(150);
+        assertEquals((Integer) 2, lazy.get());
+        // the refresh started from the first value; it must not overwrite the newer one
+        runTasks();
+        assertEquals((Integer) 2, lazy.get());
+        assertEquals(3, counter.get());
+    }
+
+    // a failing refresh keeps the old value, and is retried
+    @Test
+    public void test4() {
+        AtomicInteger calls = new AtomicInteger();
+        RefreshingLazy<String> lazy = new RefreshingLazy<>(() -> {
+            if (calls.incrementAndGet() == 2) throw new UnsupportedOperationException();
+            return "v" + calls.get();
+        }, null, Duration.ofNanos(10), tasks::add, clock::get);
+        assertEquals("v1", lazy.get());
+        clock.set(10);
+        assertEquals("v1", lazy.get());
+        runTasks();
+        assertFalse(lazy.isRefreshing());
+        assertEquals("v1", lazy.get());
+        runTasks();
+        assertEquals("v3", lazy.get());
+    }
+
+    @Test
+    public void test5() {
+        try {
+            create(null, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // normal behaviour
+        }
+        try {
+            create(Duration.ofNanos(10), Duration.ofNanos(10));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // normal behaviour
+        }
+        try {
+            create(Duration.ZERO, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // normal behaviour
+        }
+        RefreshingLazy<Integer> rejecting = new RefreshingLazy<>(counter::incrementAndGet, null,
+                Duration.ofNanos(10), r -> {
+            throw new RejectedExecutionException();
+        }, clock::get);
+        assertEquals((Integer) 1, rejecting.get());
+        clock.set(10);
+        assertEquals((Integer) 1, rejecting.get());
+        assertFalse(rejecting.isRefreshing());
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSetOnce {
+
+    @Test
+    public void test1() {
+        SetOnce<String> setOnce = new SetOnce<>();
+        assertFalse(setOnce.isSet());
+        assertEquals("x", setOnce.getOrDefault("x"));
+        assertNull(setOnce.getOrDefaultNull());
+        try {
+            setOnce.get();
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        setOnce.set("abc");
+        assertEquals("abc", setOnce.get());
+        try {
+            setOnce.set("abc");
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        try {
+            new SetOnce<String>().set(null);
+            fail();
+        } catch (NullPointerException e) {
+            // normal behaviour
+        }
+    }
+
+    // waiting threads and listeners
+    @Test
+    public void test2() throws Exception {
+        SetOnce<String> setOnce = new SetOnce<>();
+        assertNull(setOnce.await(Duration.ofMillis(1)));
+        List<String> heard = new ArrayList<>();
+        setOnce.onSet(heard::add);
+        setOnce.onSet(s -> {
+            throw new UnsupportedOperationException();
+        });
+        CompletableFuture<String> view = setOnce.toCompletionStage().toCompletableFuture();
+        // the view is read-only: completing a future derived from it has no effect
+        setOnce.toCompletionStage().toCompletableFuture().complete("wrong");
+        assertFalse(setOnce.isSet());
+        assertFalse(view.isDone());
+
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> waiting = new ArrayList<>();
+            for (int i = 0; i < threads; i++) waiting.add(executor.submit(() -> setOnce.await()));
+            // a failing listener does not make set() fail
+            setOnce.set("abc");
+            for (Future<String> future : waiting) assertEquals("abc", future.get());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals("[abc]", heard.toString());
+        assertEquals("abc", view.join());
+        assertEquals("abc", setOnce.await());
+        assertEquals("abc", setOnce.await(Duration.ZERO));
+        setOnce.onSet(heard::add);
+        assertEquals("[abc, abc]", heard.toString());
+    }
+
+    // listeners registered concurrently with set() run exactly once
+    @Test
+    public void test3() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int round = 0; round < 200; round++) {
+                SetOnce<Integer> setOnce = new SetOnce<>();
+                AtomicInteger calls = new AtomicInteger();
+                CountDownLatch start = new CountDownLatch(1);
+                Future<?> listeners = executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 50; i++) setOnce.onSet(v -> calls.incrementAndGet());
+                    return null;
+                });
+                Future<?> setter = executor.submit(() -> {
+                    start.await();
+                    setOnce.set(1);
+                    return null;
+                });
+                start.countDown();
+                listeners.get();
+                setter.get();
+                assertEquals(50, calls.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
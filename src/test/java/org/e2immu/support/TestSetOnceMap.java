@@ -0,0 +1,299 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.stream.IntStream;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSetOnceMap {
+
+    @Test
+    public void test1() {
+        SetOnceMap<String, Integer> map = new SetOnceMap<>();
+        assertTrue(map.isEmpty());
+        map.put("a", 1);
+        map.put("b", 2);
+        assertEquals(2, map.size());
+        assertEquals((Integer) 1, map.get("a"));
+        assertNull(map.getOrDefaultNull("c"));
+        assertEquals((Integer) 3, map.getOrDefault("c", 3));
+        try {
+            map.put("a", 1);
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        assertEquals((Integer) 4, map.getOrCreate("d", k -> 4));
+        assertEquals((Integer) 4, map.getOrCreate("d", k -> 5));
+    }
+
+    @Test
+    public void test2() {
+        SetOnceMap<String, Integer> map = new SetOnceMap<>();
+        for (int i = 0; i < 100; i++) map.put("k" + i, i);
+        map.freeze();
+        assertTrue(map.isFrozen());
+        assertEquals(100, map.size());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(map.isSet("k" + i));
+            assertEquals((Integer) i, map.get("k" + i));
+        }
+        assertFalse(map.isSet("k100"));
+        assertFalse(map.isSet(null));
+        assertNull(map.getOrDefaultNull("x"));
+        assertEquals((Integer) 7, map.getOrDefault("x", 7));
+        try {
+            map.get("x");
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        try {
+            map.put("x", 1);
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        try {
+            map.getOrCreate("k1", k -> 1);
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+    }
+
+    @Test
+    public void test3() {
+        SetOnceMap<String, Integer> map = new SetOnceMap<>();
+        map.put("z", 1);
+        map.put("a", 2);
+        map.put("m", 3);
+        List<String> before = map.keyStream().collect(Collectors.toList());
+        assertEquals(List.of("z", "a", "m"), before);
+        map.freeze();
+        assertEquals(before, map.keyStream().collect(Collectors.toList()));
+        assertEquals(List.of(1, 2, 3), map.valueStream().collect(Collectors.toList()));
+        assertEquals("z=1, a=2, m=3", map.stream().map(Object::toString).collect(Collectors.joining(", ")));
+        assertEquals(Map.of("z", 1, "a", 2, "m", 3), map.toImmutableMap());
+
+        SetOnceMap<String, Integer> copy = new SetOnceMap<>();
+        copy.putAll(map);
+        assertEquals(3, copy.size());
+        assertEquals((Integer) 3, copy.get("m"));
+    }
+
+    @Test
+    public void test4() {
+        SetOnceMap<String, Integer> map = new SetOnceMap<>();
+        map.freeze();
+        assertTrue(map.isEmpty());
+        assertFalse(map.isSet("a"));
+        assertEquals(0L, map.stream().count());
+        assertTrue(map.toImmutableMap().isEmpty());
+    }
+
+    @Test
+    public void test5() {
+        SetOnceMap<String, Integer> map = new SetOnceMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+        List<String> list = new ArrayList<>();
+        map.forEach((k, v) -> list.add(k + v));
+        for (Cursor<String, Integer> c = map.cursor(); c.next(); ) list.add(c.key() + c.value());
+        map.freeze();
+        map.forEach((k, v) -> list.add(k + v));
+        Cursor<String, Integer> cursor = map.cursor();
+        try {
+            cursor.key();
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        while (cursor.next()) list.add(cursor.key() + cursor.value());
+        assertFalse(cursor.next());
+        assertEquals(List.of("a1", "b2", "a1", "b2", "a1", "b2", "a1", "b2"), list);
+    }
+
+    /*
+    Allocation benchmark: iterating must not allocate per element, neither before nor after freezing.
+     */
+    @Test
+    public void test6() {
+        int n = 100_000;
+        SetOnceMap<Integer, Integer> map = new SetOnceMap<>();
+        for (int i = 0; i < n; i++) map.put(i, i);
+        assertTrue(allocatedBytesPerElement(map, n) < 1.0);
+        map.freeze();
+        assertTrue(allocatedBytesPerElement(map, n) < 1.0);
+    }
+
+    private static double allocatedBytesPerElement(SetOnceMap<Integer, Integer> map, int n) {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long[] sum = new long[1];
+        // warm up
+        for (int i = 0; i < 5; i++) {
+            map.forEach((k, v) -> sum[0] += v);
+            for (Cursor<Integer, Integer> c = map.cursor(); c.next(); ) sum[0] += c.value();
+        }
+        long before = bean.getThreadAllocatedBytes(threadId);
+        map.forEach((k, v) -> sum[0] += v);
+        for (Cursor<Integer, Integer> c = map.cursor(); c.next(); ) sum[0] += c.value();
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+        assertEquals(12L * n * (n - 1) / 2, sum[0]);
+        return allocated / (2.0 * n);
+    }
+
+    @Test
+    public void test7() {
+        SetOnceMap<String, Integer> map = new SetOnceMap<>();
+        map.put("x", 1);
+        map.put("y", 2);
+        Map<String, Integer> copy = map.toImmutableMap();
+        assertNotSame(copy, map.toImmutableMap());
+        map.freeze();
+        Map<String, Integer> view = map.toImmutableMap();
+        assertSame(view, map.toImmutableMap());
+        assertEquals(copy, view);
+        assertEquals(view, copy);
+        assertEquals(copy.hashCode(), view.hashCode());
+        assertEquals(Set.of("x", "y"), view.keySet());
+        assertEquals(List.of("x", "y"), new ArrayList<>(view.keySet()));
+        assertEquals(List.of(1, 2), new ArrayList<>(view.values()));
+        assertTrue(view.containsValue(2));
+        assertFalse(view.containsValue(3));
+        assertTrue(view.entrySet().contains(Map.entry("y", 2)));
+        assertEquals((Integer) 5, view.getOrDefault("z", 5));
+        assertEquals(new HashMap<>(copy), new HashMap<>(view));
+        try {
+            view.put("z", 3);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // normal behaviour
+        }
+        try {
+            view.keySet().clear();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // normal behaviour
+        }
+        try {
+            view.entrySet().iterator().next().setValue(4);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // normal behaviour
+        }
+        try {
+            view.computeIfAbsent("z", k -> 3);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // normal behaviour
+        }
+    }
+
+    @Test
+    public void test8() {
+        SetOnceMap<Integer, String> map = new SetOnceMap<>(1000);
+        map.putAll(Map.of(1, "a", 2, "b"));
+        map.putAll(IntStream.range(10, 1000).mapToObj(i -> Map.entry(i, "v" + i)));
+        assertEquals(992, map.size());
+        try {
+            map.putAll(Map.of(1, "c", 2, "d", 3, "e"));
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("Already decided on 2 key(s)"));
+        }
+        assertEquals("a", map.get(1));
+        assertEquals("e", map.get(3));
+        try {
+            map.putAll(IntStream.of(4, 4).mapToObj(i -> Map.entry(i, "x")));
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Already decided on 1 key(s): [4]", e.getMessage());
+        }
+        SetOnceMap<Integer, String> copy = new SetOnceMap<>();
+        copy.put(-1, "z");
+        map.freeze();
+        copy.putAll(map);
+        assertEquals(995, copy.size());
+        assertEquals(-1, (int) copy.keyStream().findFirst().orElseThrow());
+        try {
+            new SetOnceMap<>(-1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // normal behaviour
+        }
+    }
+
+    @Test
+    public void test9() {
+        SetOnceMap<Integer, Integer> map = new SetOnceMap<>();
+        for (int i = 0; i < 1000; i++) map.put(i, 2 * i);
+        map.freeze();
+        Spliterator<Integer> keys = map.keyStream().spliterator();
+        int expected = Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.IMMUTABLE | Spliterator.NONNULL
+                | Spliterator.DISTINCT;
+        assertEquals(expected, keys.characteristics() & expected);
+        Spliterator<Integer> prefix = keys.trySplit();
+        assertNotNull(prefix);
+        assertEquals(500, prefix.estimateSize());
+        assertEquals(500, keys.estimateSize());
+        Spliterator<Map.Entry<Integer, Integer>> entries = map.stream().spliterator();
+        assertEquals(expected, entries.characteristics() & expected);
+        assertEquals(500, entries.trySplit().getExactSizeIfKnown());
+        Spliterator<Integer> values = map.valueStream().spliterator();
+        assertEquals(0, values.characteristics() & Spliterator.DISTINCT);
+
+        assertEquals(999 * 1000 / 2, map.keyStream().parallel().mapToInt(i -> i).sum());
+        assertEquals(999 * 1000, map.valueStream().parallel().mapToInt(i -> i).sum());
+        assertEquals(999 * 1000 * 3 / 2, map.stream().parallel().mapToInt(e -> e.getKey() + e.getValue()).sum());
+        assertEquals(1000, map.toImmutableMap().entrySet().parallelStream().count());
+    }
+
+    // putAll(SetOnceMap) adds nothing when a key is already present
+    @Test
+    public void test10() {
+        SetOnceMap<String, Integer> source = new SetOnceMap<>();
+        source.put("a", 1);
+        source.put("b", 2);
+        source.put("c", 3);
+        SetOnceMap<String, Integer> target = new SetOnceMap<>();
+        target.put("b", 20);
+        try {
+            target.putAll(source);
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        assertEquals(1, target.size());
+        assertEquals((Integer) 20, target.get("b"));
+
+        source.freeze();
+        SetOnceMap<String, Integer> empty = new SetOnceMap<>();
+        empty.putAll(source);
+        assertEquals(List.of("a", "b", "c"), empty.keyStream().collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSetOncePrimitive {
+
+    @Test
+    public void test1() {
+        SetOnceInt s = new SetOnceInt();
+        assertFalse(s.isSet());
+        assertEquals(3, s.getOrDefault(3));
+        try {
+            s.get();
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        s.set(0);
+        assertTrue(s.isSet());
+        assertEquals(0, s.get());
+        assertEquals(0, s.get("message"));
+        assertEquals(0, s.getOrDefault(3));
+        try {
+            s.set(0);
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        assertEquals("SetOnceInt{t=0}", s.toString());
+        assertEquals("SetOnceInt{not set}", new SetOnceInt().toString());
+    }
+
+    @Test
+    public void test2() {
+        SetOnceLong s1 = new SetOnceLong();
+        SetOnceLong s2 = new SetOnceLong();
+        assertEquals(s1, s2);
+        s1.set(1L << 40);
+        assertNotEquals(s1, s2);
+        s2.copy(s1);
+        assertEquals(s1, s2);
+        assertEquals(s1.hashCode(), s2.hashCode());
+        assertEquals(1L << 40, s2.get());
+
+        SetOnceDouble d1 = new SetOnceDouble();
+        SetOnceDouble d2 = new SetOnceDouble();
+        d1.set(Double.NaN);
+        d2.set(Double.NaN);
+        assertEquals(d1, d2);
+
+        SetOnceBoolean b = new SetOnceBoolean();
+        assertTrue(b.getOrDefault(true));
+        b.set(false);
+        assertFalse(b.get());
+        assertFalse(b.getOrDefault(true));
+    }
+
+    // reading does not box
+    @Test
+    public void test3() {
+        SetOnceLong s = new SetOnceLong();
+        s.set(123_456_789L);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long sum = 0;
+        long before = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100_000; i++) sum += s.get();
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+        assertEquals(12_345_678_900_000L, sum);
+        assertTrue(allocated < 100_000, "Allocated " + allocated);
+    }
+}
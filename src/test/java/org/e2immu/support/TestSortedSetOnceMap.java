@@ -0,0 +1,130 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSortedSetOnceMap {
+
+    @Test
+    public void test1() {
+        SortedSetOnceMap<Integer, String> map = new SortedSetOnceMap<>();
+        for (int i : new int[]{50, 10, 40, 20, 30}) map.put(i, "v" + i);
+        assertEquals("v40", map.get(40));
+        try {
+            map.put(10, "x");
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        try {
+            map.floorKey(25);
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour: only after freezing
+        }
+        map.freeze();
+
+        assertEquals(5, map.size());
+        assertEquals("v40", map.get(40));
+        assertNull(map.getOrDefaultNull(45));
+        assertEquals(List.of(10, 20, 30, 40, 50), map.keyStream().collect(Collectors.toList()));
+        assertEquals((Integer) 10, map.firstKey());
+        assertEquals((Integer) 50, map.lastKey());
+        assertEquals((Integer) 20, map.floorKey(25));
+        assertEquals((Integer) 20, map.floorKey(20));
+        assertNull(map.floorKey(5));
+        assertEquals((Integer) 30, map.ceilingKey(25));
+        assertNull(map.ceilingKey(55));
+        assertEquals((Integer) 10, map.lowerKey(20));
+        assertEquals((Integer) 30, map.higherKey(20));
+        assertNull(map.higherKey(50));
+    }
+
+    @Test
+    public void test2() {
+        SortedSetOnceMap<Integer, String> map = new SortedSetOnceMap<>();
+        for (int i = 99; i >= 0; i--) map.put(i, "v" + i);
+        map.freeze();
+
+        SortedSetOnceMap<Integer, String> sub = map.subMap(10, true, 20, false);
+        assertTrue(sub.isFrozen());
+        assertEquals(10, sub.size());
+        assertEquals((Integer) 10, sub.firstKey());
+        assertEquals((Integer) 19, sub.lastKey());
+        assertNull(sub.getOrDefaultNull(20));
+        assertNull(sub.getOrDefaultNull(9));
+        assertEquals("v15", sub.get(15));
+        assertNull(sub.floorKey(5));
+        assertEquals((Integer) 19, sub.floorKey(50));
+
+        SortedSetOnceMap<Integer, String> subSub = sub.subMap(12, false, 14, true);
+        assertEquals(List.of("v13", "v14"), subSub.valueStream().collect(Collectors.toList()));
+        assertEquals(List.of(Map.entry(13, "v13"), Map.entry(14, "v14")),
+                subSub.stream().collect(Collectors.toList()));
+
+        assertTrue(map.subMap(30, false, 30, false).isEmpty());
+        assertEquals(5, map.headMap(5, false).size());
+        assertEquals(6, map.headMap(5, true).size());
+        assertEquals(4, map.tailMap(96, true).size());
+        assertEquals(4950, map.tailMap(-1, true).subMap(0, true, 200, true).keyStream().parallel()
+                .mapToInt(i -> i).sum());
+        try {
+            map.subMap(20, true, 10, true);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // normal behaviour
+        }
+
+        int[] sum = new int[1];
+        map.subMap(0, true, 9, true).forEach((k, v) -> sum[0] += k);
+        assertEquals(45, sum[0]);
+        Cursor<Integer, String> cursor = map.tailMap(98, true).cursor();
+        assertTrue(cursor.next());
+        assertEquals("v98", cursor.value());
+        assertTrue(cursor.next());
+        assertEquals((Integer) 99, cursor.key());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void test3() {
+        SortedSetOnceMap<String, Integer> map = new SortedSetOnceMap<>(Comparator.reverseOrder());
+        map.put("apple", 1);
+        map.put("cherry", 3);
+        map.put("banana", 2);
+        map.freeze();
+        assertEquals(List.of("cherry", "banana", "apple"), map.keyStream().collect(Collectors.toList()));
+        assertEquals("cherry", map.floorKey("blueberry"));
+        assertEquals("apple", map.higherKey("banana"));
+
+        SortedSetOnceMap<String, Integer> caseless = new SortedSetOnceMap<>(String.CASE_INSENSITIVE_ORDER);
+        caseless.put("a", 1);
+        caseless.put("A", 2);
+        try {
+            caseless.freeze();
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour: ordering not consistent with equals
+        }
+    }
+}
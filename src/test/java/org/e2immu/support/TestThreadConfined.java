@@ -0,0 +1,144 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestThreadConfined {
+
+    @Test
+    public void test1() throws InterruptedException {
+        SetOnceMap<String, Integer> map = new SetOnceMap<>();
+        map.confineToCurrentThread();
+        assertTrue(map.isThreadConfined());
+        map.put("a", 1);
+        assertFalse(map.isFrozen());
+
+        AtomicReference<Throwable> fromOtherThread = new AtomicReference<>();
+        Thread other = new Thread(() -> {
+            try {
+                map.put("b", 2);
+            } catch (Throwable t) {
+                fromOtherThread.set(t);
+            }
+        });
+        other.start();
+        other.join();
+        assertTrue(fromOtherThread.get() instanceof IllegalStateException);
+        assertFalse(map.isSet("b"));
+
+        try {
+            new FreezeGroup().add(map);
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        map.freeze();
+        assertTrue(map.isFrozen());
+        assertEquals(1, (int) map.get("a"));
+        try {
+            map.put("c", 3);
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+    }
+
+    /*
+    A builder thread fills a confined map, freezes it, and publishes it through a volatile write.
+    Readers on other threads must see the frozen state and the complete content.
+     */
+    @Test
+    public void test2() throws InterruptedException {
+        int rounds = 2_000;
+        int readers = 3;
+        int entries = 50;
+        AtomicReference<SetOnceMap<Integer, Integer>> published = new AtomicReference<>();
+        AtomicInteger failures = new AtomicInteger();
+        AtomicInteger observed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(readers);
+        Thread[] threads = new Thread[readers];
+        for (int r = 0; r < readers; r++) {
+            threads[r] = new Thread(() -> {
+                SetOnceMap<Integer, Integer> last = null;
+                int seen = 0;
+                while (seen < rounds) {
+                    SetOnceMap<Integer, Integer> m = published.get();
+                    if (m == null || m == last) {
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    last = m;
+                    seen = m.get(-1);
+                    if (!m.isFrozen() || m.size() != entries + 1) failures.incrementAndGet();
+                    for (int i = 0; i < entries; i++) {
+                        Integer v = m.getOrDefaultNull(i);
+                        if (v == null || v != i * seen) failures.incrementAndGet();
+                    }
+                    observed.incrementAndGet();
+                }
+                done.countDown();
+            });
+            threads[r].setDaemon(true);
+            threads[r].start();
+        }
+        for (int round = 1; round <= rounds; round++) {
+            SetOnceMap<Integer, Integer> map = new SetOnceMap<>();
+            map.confineToCurrentThread();
+            for (int i = 0; i < entries; i++) map.put(i, i * round);
+            map.put(-1, round);
+            map.freeze();
+            published.set(map);
+            if (round % 100 == 0) Thread.yield();
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        assertEquals(0, failures.get());
+        assertTrue(observed.get() >= readers);
+    }
+
+    // once frozen, the object does not keep its building thread reachable
+    @Test
+    public void test3() throws InterruptedException {
+        AtomicReference<SetOnceMap<String, Integer>> built = new AtomicReference<>();
+        Thread builder = new Thread(() -> {
+            SetOnceMap<String, Integer> map = new SetOnceMap<>();
+            map.confineToCurrentThread();
+            map.put("a", 1);
+            map.freeze();
+            built.set(map);
+        });
+        WeakReference<Thread> weak = new WeakReference<>(builder);
+        builder.start();
+        builder.join();
+        builder = null;
+        SetOnceMap<String, Integer> map = built.get();
+        for (int i = 0; i < 20 && weak.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(weak.get());
+        assertTrue(map.isFrozen());
+        assertTrue(map.isThreadConfined());
+        assertEquals(1, (int) map.get("a"));
+    }
+}
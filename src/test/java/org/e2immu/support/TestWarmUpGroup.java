@@ -0,0 +1,162 @@
+/*
+ * e2immu: a static code analyser for effective and eventual immutability
+ * Copyright 2020-2021, Bart Naudts, https://www.e2immu.org
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public
+ * License along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.e2immu.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestWarmUpGroup {
+
+    private static Lazy<String> lazy(List<String> order, String name) {
+        return new Lazy<>(() -> {
+            order.add(name);
+            return name;
+        });
+    }
+
+    // dependencies are evaluated first; times are reported for all
+    @Test
+    public void test1() throws InterruptedException {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        WarmUpGroup group = new WarmUpGroup();
+        Lazy<String> a = group.add("a", lazy(order, "a"));
+        Lazy<String> b = group.add("b", lazy(order, "b"));
+        Lazy<String> c = group.add("c", lazy(order, "c"), a, b);
+        Lazy<String> d = group.add("d", lazy(order, "d"), c);
+        assertEquals(4, group.size());
+        assertFalse(group.isStarted());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            group.start(executor);
+            assertTrue(group.awaitWarm(Duration.ofSeconds(10)));
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(group.isWarm());
+        assertTrue(d.hasBeenEvaluated());
+        assertEquals(4, order.size());
+        assertTrue(order.indexOf("c") > order.indexOf("a"));
+        assertTrue(order.indexOf("c") > order.indexOf("b"));
+        assertEquals(3, order.indexOf("d"));
+        Map<String, Duration> times = group.evaluationTimes();
+        assertEquals("[a, b, c, d]", times.keySet().toString());
+
+        try {
+            group.add("e", lazy(order, "e"));
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        try {
+            group.start();
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+    }
+
+    // a failure skips the dependents, but not the others
+    @Test
+    public void test2() throws InterruptedException {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        WarmUpGroup group = new WarmUpGroup();
+        Lazy<String> failing = group.add("failing", new Lazy<>(() -> {
+            throw new UnsupportedOperationException();
+        }));
+        Lazy<String> dependent = group.add("dependent", lazy(order, "dependent"), failing);
+        Lazy<String> independent = group.add("independent", lazy(order, "independent"));
+        group.start(Runnable::run);
+        try {
+            group.awaitWarm(Duration.ofSeconds(1));
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("failing"));
+            assertTrue(e.getCause() instanceof UnsupportedOperationException);
+        }
+        assertFalse(group.isWarm());
+        assertFalse(dependent.hasBeenEvaluated());
+        assertTrue(independent.hasBeenEvaluated());
+        assertEquals("[independent]", group.evaluationTimes().keySet().toString());
+    }
+
+    // the deadline
+    @Test
+    public void test3() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        WarmUpGroup group = new WarmUpGroup();
+        group.add("slow", new Lazy<>(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return "slow";
+        }));
+        try {
+            group.awaitWarm(Duration.ofMillis(1));
+            fail();
+        } catch (IllegalStateException e) {
+            // normal behaviour
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            group.start(executor);
+            assertFalse(group.awaitWarm(Duration.ofMillis(20)));
+            latch.countDown();
+            assertTrue(group.awaitWarm(Duration.ofSeconds(10)));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void test4() throws InterruptedException {
+        WarmUpGroup group = new WarmUpGroup();
+        Lazy<String> a = new Lazy<>(() -> "a");
+        try {
+            group.add("b", new Lazy<>(() -> "b"), a);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // normal behaviour
+        }
+        group.add("a", a);
+        try {
+            group.add("a", new Lazy<>(() -> "a"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // normal behaviour
+        }
+        try {
+            group.add("other", a);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // normal behaviour
+        }
+        WarmUpGroup empty = new WarmUpGroup();
+        empty.start();
+        assertTrue(empty.awaitWarm(Duration.ZERO));
+    }
+}